@@ -3,8 +3,8 @@ package com.dachlab.google;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.GeneralSecurityException;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -13,10 +13,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.dachlab.properties.IGoogleServicesProperties;
+import com.dachlab.storage.IStorageBackend;
 import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
 import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
-import com.google.api.client.http.FileContent;
+import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
@@ -27,7 +28,7 @@ import com.google.api.services.drive.model.FileList;
 import com.google.api.services.drive.model.Permission;
 
 @Service("googleDriveService")
-public class GoogleDriveService implements IGoogleDriveService {
+public class GoogleDriveService implements IGoogleDriveService, IStorageBackend {
 
 	private final Logger log = LoggerFactory.getLogger(this.getClass());
 
@@ -40,7 +41,7 @@ public class GoogleDriveService implements IGoogleDriveService {
 	/** Global instance of the JSON factory. */
 	private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
 
-	/** Global instance of the HTTP transport. */
+	/** Global instance of the HTTP transport, null until needed. */
 	private static HttpTransport HTTP_TRANSPORT;
 
 	/** Google Drive scopes. */
@@ -49,16 +50,29 @@ public class GoogleDriveService implements IGoogleDriveService {
 	/** The Google Drive service. **/
 	private Drive driveService;
 
-	/** Reference to the file storage process thread. **/
-	FileStorageProcessThread fileStorageProcessThread;
+	/** The credential of the application, null until loaded. **/
+	private Credential credential;
 
-	static {
-		try {
-			HTTP_TRANSPORT = GoogleNetHttpTransport.newTrustedTransport();
-		} catch (Throwable t) {
-			t.printStackTrace();
-			System.exit(1);
+	/** The uploader of the files, null until needed. **/
+	private ResumableUploader resumableUploader;
+
+	/**
+	 * Get the HTTP transport, created the first time, so that nothing is set
+	 * up for Google until Drive is used.
+	 * 
+	 * @return the HTTP transport.
+	 * @throws IOException
+	 *             if the transport cannot be created.
+	 */
+	private static synchronized HttpTransport getHttpTransport() throws IOException {
+		if (HTTP_TRANSPORT == null) {
+			try {
+				HTTP_TRANSPORT = GoogleNetHttpTransport.newTrustedTransport();
+			} catch (GeneralSecurityException e) {
+				throw new IOException("Unable to create the HTTP transport of Google.", e);
+			}
 		}
+		return HTTP_TRANSPORT;
 	}
 
 	/**
@@ -67,16 +81,62 @@ public class GoogleDriveService implements IGoogleDriveService {
 	 * @return an authorized Drive client service
 	 * @throws IOException
 	 */
-	private Drive getDriveService() throws IOException {
+	private synchronized Drive getDriveService() throws IOException {
 		if (driveService == null) {
-			// Load client secrets.
-			InputStream in = new FileInputStream(new java.io.File(googleServicesProperties.getPathToGoogleCredentials()));
-			Credential credential = GoogleCredential.fromStream(in).createScoped(SCOPES);
-			driveService = new Drive.Builder(HTTP_TRANSPORT, JSON_FACTORY, credential).setApplicationName(APPLICATION_NAME).build();
+			final Credential driveCredential = getCredential();
+			if (driveCredential == null) {
+				throw new IOException("The Drive API is not available with the upload stand-in, no credentials are configured.");
+			}
+			driveService = new Drive.Builder(getHttpTransport(), JSON_FACTORY, driveCredential).setApplicationName(APPLICATION_NAME).build();
 		}
 		return driveService;
 	}
 
+	/**
+	 * Load the credential of the application.
+	 * 
+	 * @return the credential, null if no credentials file is configured and
+	 *         the uploads go to a local stand-in of the upload endpoint.
+	 * @throws IOException
+	 *             if the credentials cannot be read or are not configured.
+	 */
+	private synchronized Credential getCredential() throws IOException {
+		final String pathToGoogleCredentials = googleServicesProperties.getPathToGoogleCredentials();
+		if (credential == null && (pathToGoogleCredentials == null || pathToGoogleCredentials.isEmpty())) {
+			if (googleServicesProperties.isUploadStandIn()) {
+				return null;
+			}
+			throw new IOException("No Google credentials configured, set google.pathToGoogleCredentials.");
+		}
+		if (credential == null) {
+			// Load client secrets.
+			final InputStream in = new FileInputStream(new java.io.File(pathToGoogleCredentials));
+			try {
+				credential = GoogleCredential.fromStream(in).createScoped(SCOPES);
+			} finally {
+				in.close();
+			}
+		}
+		return credential;
+	}
+
+	/**
+	 * Build and return the uploader of the files.
+	 * 
+	 * @return the uploader.
+	 * @throws IOException
+	 */
+	private synchronized ResumableUploader getResumableUploader() throws IOException {
+		if (resumableUploader == null) {
+			final Credential uploadCredential = getCredential();
+			final HttpTransport httpTransport = getHttpTransport();
+			final HttpRequestFactory requestFactory = uploadCredential == null ? httpTransport.createRequestFactory() : httpTransport.createRequestFactory(uploadCredential);
+			resumableUploader = new ResumableUploader(requestFactory, JSON_FACTORY, googleServicesProperties.getUploadEndpoint(), googleServicesProperties.getUploadChunkSize(),
+					new java.io.File(googleServicesProperties.getUploadProgressPath()));
+		}
+		return resumableUploader;
+	}
+
 	/**
 	 * Create a folder in the application Drive
 	 * 
@@ -127,7 +187,8 @@ public class GoogleDriveService implements IGoogleDriveService {
 	}
 
 	/**
-	 * Add a file to a folder.
+	 * Add a file to a folder. The file is sent by chunks, an upload cut going
+	 * on from the last chunk received at the next call for the same file.
 	 * 
 	 * @param folderId
 	 *            ID of the folder.
@@ -137,14 +198,10 @@ public class GoogleDriveService implements IGoogleDriveService {
 	 */
 	@Override
 	public File addFileToFolder(final String folderId, final java.io.File file) {
-		final File driveFile = new File();
-		driveFile.setName(file.getName());
-		driveFile.setParents(Collections.singletonList(folderId));
-		final FileContent mediaContent = new FileContent(null, file);
 		try {
-			return getDriveService().files().create(driveFile, mediaContent).setFields("id, parents").execute();
+			return getResumableUploader().upload(file, folderId);
 		} catch (IOException e) {
-			log.error("An error occured while adding file " + driveFile.getName() + " to folder " + folderId + ".", e);
+			log.error("An error occured while adding file " + file.getName() + " to folder " + folderId + ".", e);
 			return null;
 		}
 	}
@@ -193,45 +250,26 @@ public class GoogleDriveService implements IGoogleDriveService {
 	}
 
 	/**
-	 * Start a running process that will store the files present on a folder to
-	 * the default Drive storate folder.
+	 * Store a file in the default storage folder, for the storage service.
 	 * 
-	 * @param pathToFilesToStore
-	 *            The Path to the folder from where to get the local files.
-	 * @return True if properly initialized.
+	 * @param file
+	 *            The file to store.
+	 * @return the ID of the file stored.
+	 * @throws IOException
+	 *             if the file could not be uploaded.
 	 */
 	@Override
-	public boolean startFileStorageProcess(final String pathToFilesToStore) {
-		try {
-			stopFileStorageProcess();
-			this.fileStorageProcessThread = new FileStorageProcessThread(this, pathToFilesToStore);
-			fileStorageProcessThread.run();
-			return true;
-		} catch (Throwable t) {
-			log.error("unable to start the file storage process", t);
-			return false;
-		}
+	public String store(final java.io.File file) throws IOException {
+		return getResumableUploader().upload(file, googleServicesProperties.getStorageFolderID()).getId();
 	}
 
-	/**
-	 * Interrupt the current file storage process.
-	 * 
-	 * @return
-	 */
 	@Override
-	public boolean stopFileStorageProcess() {
-		try {
-			if (fileStorageProcessThread != null && fileStorageProcessThread.isAlive()) {
-				fileStorageProcessThread.interrupt();
-				log.info("File storage process interrupted successfully");
-				return true;
-			} else {
-				log.info("Unable to interrupt the file storage process. It is either not initialized yet or already interrupted.");
-				return false;
-			}
-		} catch (Throwable t) {
-			log.error("unable to start the file storage process", t);
-			return false;
-		}
+	public String getName() {
+		return "Drive";
+	}
+
+	@Override
+	public boolean isDurable() {
+		return true;
 	}
 }
\ No newline at end of file
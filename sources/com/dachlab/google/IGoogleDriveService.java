@@ -19,8 +19,4 @@ public interface IGoogleDriveService {
 
 	File addFileToStorageFolder(java.io.File file);
 
-	boolean startFileStorageProcess(String pathToFilesToStore);
-
-	boolean stopFileStorageProcess();
-
 }
@@ -0,0 +1,364 @@
+package com.dachlab.google;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.EmptyContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.json.JsonHttpContent;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonObjectParser;
+
+/**
+ * Resumable upload of files to Drive, by chunks. An upload session is opened
+ * for each file, then the file is sent chunk after chunk, each chunk being
+ * acknowledged by the server. The session and the last acknowledged offset are
+ * saved after each chunk, so that an upload cut by a network error or a
+ * restart goes on from the last chunk acknowledged instead of from the start.
+ * Thread safe: several files may be uploaded at the same time.
+ *
+ * The upload endpoint is configurable, so that a local HTTP server may stand
+ * in for Drive. A chunk not acknowledged fails the upload, which is retried
+ * later.
+ *
+ * @author dcharles
+ */
+public class ResumableUploader {
+
+	/** Chunk sizes must be multiple of this size. */
+	private static final int CHUNK_GRANULARITY = 256 * 1024;
+
+	/** Status of a chunk acknowledged, the upload being incomplete. */
+	private static final int RESUME_INCOMPLETE = 308;
+
+	private static final String CONTENT_TYPE = "application/octet-stream";
+
+	private static final String SESSION = "session";
+
+	private static final String OFFSET = "offset";
+
+	private static final String LENGTH = "length";
+
+	private static final String LAST_MODIFIED = "lastModified";
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	private final HttpRequestFactory requestFactory;
+
+	private final JsonFactory jsonFactory;
+
+	private final String uploadEndpoint;
+
+	private final int chunkSize;
+
+	private final File progressFolder;
+
+	/**
+	 * Constructor using the upload parameters.
+	 *
+	 * @param requestFactory
+	 *            factory of the authorized requests.
+	 * @param jsonFactory
+	 *            factory of the JSON parsers.
+	 * @param uploadEndpoint
+	 *            URL of the upload endpoint of the files.
+	 * @param chunkSize
+	 *            size of the chunks in bytes, rounded up to a multiple of 256
+	 *            KiB.
+	 * @param progressFolder
+	 *            folder where the progress of the uploads is saved.
+	 */
+	public ResumableUploader(final HttpRequestFactory requestFactory, final JsonFactory jsonFactory, final String uploadEndpoint, final int chunkSize, final File progressFolder) {
+		this.requestFactory = requestFactory;
+		this.jsonFactory = jsonFactory;
+		this.uploadEndpoint = uploadEndpoint;
+		this.chunkSize = Math.max(1, (chunkSize + CHUNK_GRANULARITY - 1) / CHUNK_GRANULARITY) * CHUNK_GRANULARITY;
+		this.progressFolder = progressFolder;
+	}
+
+	/**
+	 * Upload a file to a folder, going on from the last chunk acknowledged if
+	 * a previous upload of the same file has been cut.
+	 *
+	 * @param file
+	 *            the file.
+	 * @param folderId
+	 *            ID of the Drive folder.
+	 * @return the Drive file created.
+	 * @throws IOException
+	 *             if the upload failed, the progress being kept.
+	 */
+	public com.google.api.services.drive.model.File upload(final File file, final String folderId) throws IOException {
+		final File progressFile = getProgressFile(file);
+		final Properties progress = loadProgress(progressFile, file);
+		final long length = file.length();
+		String session = progress.getProperty(SESSION);
+		long offset = -1;
+		if (session != null) {
+			final HttpResponse response = send(session, new EmptyContent(), "bytes */" + length);
+			if (isComplete(response)) {
+				return complete(progressFile, response);
+			}
+			offset = resumeOffset(response);
+			if (offset >= 0) {
+				log.info("Resuming the upload of " + file.getName() + " at " + offset + " of " + length + " bytes.");
+			}
+		}
+		if (offset < 0) {
+			session = openSession(file, folderId, length);
+			offset = 0;
+			progress.setProperty(SESSION, session);
+			progress.setProperty(LENGTH, Long.toString(length));
+			progress.setProperty(LAST_MODIFIED, Long.toString(file.lastModified()));
+			progress.setProperty(OFFSET, "0");
+			saveProgress(progressFile, progress);
+		}
+		final byte[] chunk = new byte[(int) Math.min(chunkSize, Math.max(1, length))];
+		final RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			while (true) {
+				final int size = (int) Math.min(chunk.length, length - offset);
+				input.seek(offset);
+				input.readFully(chunk, 0, size);
+				final HttpContent content = size == 0 ? new EmptyContent() : new ByteArrayContent(CONTENT_TYPE, chunk, 0, size);
+				final String range = size == 0 ? "bytes */" + length : "bytes " + offset + "-" + (offset + size - 1) + "/" + length;
+				final HttpResponse response = send(session, content, range);
+				if (isComplete(response)) {
+					return complete(progressFile, response);
+				}
+				final int status = response.getStatusCode();
+				if (status != RESUME_INCOMPLETE) {
+					final String message = response.parseAsString();
+					response.disconnect();
+					throw new IOException("Upload of " + file.getName() + " failed at " + offset + " bytes: " + status + " " + message);
+				}
+				final long acknowledgedOffset = acknowledgedOffset(response);
+				response.disconnect();
+				if (acknowledgedOffset <= offset) {
+					// Sending the chunk again would loop, the upload is retried
+					// later from the progress saved.
+					throw new IOException("Upload of " + file.getName() + " not advancing at " + offset + " of " + length + " bytes.");
+				}
+				offset = acknowledgedOffset;
+				progress.setProperty(OFFSET, Long.toString(offset));
+				saveProgress(progressFile, progress);
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Open an upload session.
+	 *
+	 * @param file
+	 *            the file.
+	 * @param folderId
+	 *            ID of the Drive folder.
+	 * @param length
+	 *            length of the file.
+	 * @return the URL of the session.
+	 * @throws IOException
+	 *             if the session cannot be opened.
+	 */
+	private String openSession(final File file, final String folderId, final long length) throws IOException {
+		final com.google.api.services.drive.model.File driveFile = new com.google.api.services.drive.model.File();
+		driveFile.setName(file.getName());
+		driveFile.setParents(Collections.singletonList(folderId));
+		final GenericUrl url = new GenericUrl(uploadEndpoint);
+		url.put("uploadType", "resumable");
+		url.put("fields", "id, parents");
+		final HttpRequest request = requestFactory.buildPostRequest(url, new JsonHttpContent(jsonFactory, driveFile));
+		request.getHeaders().set("X-Upload-Content-Type", CONTENT_TYPE).set("X-Upload-Content-Length", length);
+		request.setThrowExceptionOnExecuteError(false);
+		final HttpResponse response = request.execute();
+		try {
+			final String session = response.getHeaders().getLocation();
+			if (response.getStatusCode() != 200 || session == null) {
+				throw new IOException("Unable to open an upload session for " + file.getName() + ": " + response.getStatusCode() + " " + response.getStatusMessage());
+			}
+			return session;
+		} finally {
+			response.disconnect();
+		}
+	}
+
+	/**
+	 * Get the offset to go on from, from the answer of a session to a status
+	 * query.
+	 *
+	 * @param response
+	 *            the response to the status query, disconnected.
+	 * @return the offset, -1 if the session has expired.
+	 * @throws IOException
+	 *             if the session cannot be resumed.
+	 */
+	private static long resumeOffset(final HttpResponse response) throws IOException {
+		try {
+			final int status = response.getStatusCode();
+			if (status == RESUME_INCOMPLETE) {
+				return acknowledgedOffset(response);
+			}
+			if (status == 404 || status == 410) {
+				return -1;
+			}
+			throw new IOException("Unable to resume the upload session: " + status + " " + response.getStatusMessage());
+		} finally {
+			response.disconnect();
+		}
+	}
+
+	/**
+	 * @param response
+	 *            a response of a session.
+	 * @return true if the upload is complete.
+	 */
+	private static boolean isComplete(final HttpResponse response) {
+		return response.getStatusCode() == 200 || response.getStatusCode() == 201;
+	}
+
+	/**
+	 * Send a chunk, or a status query, to a session.
+	 *
+	 * @param session
+	 *            the URL of the session.
+	 * @param content
+	 *            the chunk, empty for a status query.
+	 * @param range
+	 *            the content range.
+	 * @return the response, to be disconnected.
+	 * @throws IOException
+	 *             if the session cannot be reached.
+	 */
+	private HttpResponse send(final String session, final HttpContent content, final String range) throws IOException {
+		final HttpRequest request = requestFactory.buildPutRequest(new GenericUrl(session), content);
+		request.getHeaders().setContentRange(range);
+		request.setThrowExceptionOnExecuteError(false);
+		request.setFollowRedirects(false);
+		request.setParser(new JsonObjectParser(jsonFactory));
+		return request.execute();
+	}
+
+	/**
+	 * @param response
+	 *            a resume incomplete response.
+	 * @return the offset following the last byte acknowledged.
+	 */
+	private static long acknowledgedOffset(final HttpResponse response) {
+		final HttpHeaders headers = response.getHeaders();
+		final String range = headers.getRange();
+		if (range == null) {
+			return 0;
+		}
+		return Long.parseLong(range.substring(range.lastIndexOf('-') + 1).trim()) + 1;
+	}
+
+	/**
+	 * Forget the progress of a complete upload.
+	 *
+	 * @param progressFile
+	 *            the progress file.
+	 * @param response
+	 *            the response completing the upload.
+	 * @return the Drive file created.
+	 * @throws IOException
+	 *             if the response cannot be parsed.
+	 */
+	private com.google.api.services.drive.model.File complete(final File progressFile, final HttpResponse response) throws IOException {
+		try {
+			return response.parseAs(com.google.api.services.drive.model.File.class);
+		} finally {
+			response.disconnect();
+			if (progressFile.exists() && !progressFile.delete()) {
+				log.warn("Unable to delete the upload progress " + progressFile + ".");
+			}
+		}
+	}
+
+	/**
+	 * @param file
+	 *            a file to upload.
+	 * @return the file the progress of its upload is saved to.
+	 */
+	private File getProgressFile(final File file) {
+		return new File(progressFolder, UUID.nameUUIDFromBytes(file.getAbsolutePath().getBytes(StandardCharsets.UTF_8)) + ".properties");
+	}
+
+	/**
+	 * Load the progress of the upload of a file. The progress is ignored if
+	 * the file has changed since.
+	 *
+	 * @param progressFile
+	 *            the progress file.
+	 * @param file
+	 *            the file to upload.
+	 * @return the progress, empty if none.
+	 */
+	private Properties loadProgress(final File progressFile, final File file) {
+		final Properties progress = new Properties();
+		if (!progressFile.isFile()) {
+			return progress;
+		}
+		try {
+			final InputStream in = new FileInputStream(progressFile);
+			try {
+				progress.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			log.warn("Unable to read the upload progress " + progressFile + ", starting over.", e);
+			return new Properties();
+		}
+		if (!Long.toString(file.length()).equals(progress.getProperty(LENGTH)) || !Long.toString(file.lastModified()).equals(progress.getProperty(LAST_MODIFIED))) {
+			log.info("File " + file.getName() + " changed since its upload started, starting over.");
+			return new Properties();
+		}
+		return progress;
+	}
+
+	/**
+	 * Save the progress of an upload, replacing the previous one in one step.
+	 *
+	 * @param progressFile
+	 *            the progress file.
+	 * @param progress
+	 *            the progress.
+	 * @throws IOException
+	 *             if the progress cannot be saved.
+	 */
+	private void saveProgress(final File progressFile, final Properties progress) throws IOException {
+		if (!progressFolder.isDirectory() && !progressFolder.mkdirs()) {
+			throw new IOException("Unable to create the upload progress folder " + progressFolder + ".");
+		}
+		final File temporaryFile = new File(progressFile.getPath() + ".tmp");
+		final OutputStream out = new FileOutputStream(temporaryFile);
+		try {
+			progress.store(out, null);
+		} finally {
+			out.close();
+		}
+		Files.move(temporaryFile.toPath(), progressFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+}
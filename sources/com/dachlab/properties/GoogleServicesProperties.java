@@ -15,6 +15,10 @@ public class GoogleServicesProperties implements IGoogleServicesProperties {
 
 	String pathToGoogleCredentials;
 	String storageFolderID;
+	String uploadEndpoint = "https://www.googleapis.com/upload/drive/v3/files";
+	int uploadChunkSize = 8388608;
+	String uploadProgressPath = "upload-progress";
+	boolean uploadStandIn = false;
 
 	@Override
 	public String getPathToGoogleCredentials() {
@@ -34,4 +38,40 @@ public class GoogleServicesProperties implements IGoogleServicesProperties {
 		this.storageFolderID = storageFolderID;
 	}
 
+	@Override
+	public String getUploadEndpoint() {
+		return uploadEndpoint;
+	}
+
+	public void setUploadEndpoint(String uploadEndpoint) {
+		this.uploadEndpoint = uploadEndpoint;
+	}
+
+	@Override
+	public int getUploadChunkSize() {
+		return uploadChunkSize;
+	}
+
+	public void setUploadChunkSize(int uploadChunkSize) {
+		this.uploadChunkSize = uploadChunkSize;
+	}
+
+	@Override
+	public String getUploadProgressPath() {
+		return uploadProgressPath;
+	}
+
+	public void setUploadProgressPath(String uploadProgressPath) {
+		this.uploadProgressPath = uploadProgressPath;
+	}
+
+	@Override
+	public boolean isUploadStandIn() {
+		return uploadStandIn;
+	}
+
+	public void setUploadStandIn(boolean uploadStandIn) {
+		this.uploadStandIn = uploadStandIn;
+	}
+
 }
@@ -6,4 +6,12 @@ public interface IGoogleServicesProperties {
 
 	String getStorageFolderID();
 
+	String getUploadEndpoint();
+
+	int getUploadChunkSize();
+
+	String getUploadProgressPath();
+
+	boolean isUploadStandIn();
+
 }
@@ -0,0 +1,21 @@
+package com.dachlab.properties;
+
+public interface IStorageProperties {
+
+	String getBackend();
+
+	String getLocalPath();
+
+	int getUploadThreads();
+
+	long getUploadSettleDelay();
+
+	long getUploadRetryDelay();
+
+	long getUploadMaximumRetryDelay();
+
+	int getUploadMaximumAttempts();
+
+	String getUploadJournalFile();
+
+}
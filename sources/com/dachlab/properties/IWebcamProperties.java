@@ -14,6 +14,10 @@ public interface IWebcamProperties {
 
 	String getFacesPath();
 
+	String getFaceModelPath();
+
+	int getMaximumFacesPerLabel();
+
 	String getPredictedFacesPath();
 
 	String getPredictedImagesPath();
@@ -38,4 +42,100 @@ public interface IWebcamProperties {
 
 	int getVideoFPS();
 
+	int getFrameRingSize();
+
+	Map<String, String> getFramePolicy();
+
+	Map<String, Integer> getFramePolicyParameter();
+
+	int getMatPoolCapacity();
+
+	int getUserCacheSize();
+
+	long getUserCacheTimeToLive();
+
+	int getRecorderQueueSize();
+
+	long getMaximumVideoFileSize();
+
+	long getPreRollDuration();
+
+	int getPreRollBufferSize();
+
+	int getPreRollJpegQuality();
+
+	String getFrameFormat();
+
+	int getFrameQuality();
+
+	double getMotionLearningRate();
+
+	int getMotionThreshold();
+
+	int getMotionMinimumArea();
+
+	int getMotionScaledWidth();
+
+	double getMotionChangedPixelRatio();
+
+	double getMotionRegionPadding();
+
+	int getMotionRegionMinimumSize();
+
+	int getFaceDetectionInterval();
+
+	double getFaceTrackingMinimumScore();
+
+	int getFaceTrackingMaximumMisses();
+
+	double getFaceDetectionScaleFactor();
+
+	int getFaceDetectionMinNeighbors();
+
+	int getFaceDetectionMinSize();
+
+	int getFaceDetectionMaxSize();
+
+	double getBodyDetectionScaleFactor();
+
+	int getBodyDetectionMinNeighbors();
+
+	int getBodyDetectionMinSize();
+
+	int getBodyDetectionMaxSize();
+
+	boolean isAdaptiveDetectionSize();
+
+	double getAdaptiveDetectionMargin();
+
+	int getAdaptiveDetectionFullScanInterval();
+
+	boolean isParallelDetection();
+
+	int getDetectionTileSize();
+
+	int getDetectionTileOverlap();
+
+	int getDetectionParallelism();
+
+	String getImageFormat();
+
+	int getImageQuality();
+
+	String getPredictedImagesFormat();
+
+	int getPredictedImagesQuality();
+
+	String getPredictedFacesFormat();
+
+	int getPredictedFacesQuality();
+
+	String getFacesFormat();
+
+	int getFacesQuality();
+
+	int getImageWriterThreads();
+
+	int getImageWriterQueueSize();
+
 }
@@ -0,0 +1,98 @@
+package com.dachlab.properties;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Storage properties: the backend the files are offloaded to, drive or local,
+ * and the upload parameters.
+ * 
+ * @author dcharles
+ *
+ */
+@Component("storageProperties")
+@ConfigurationProperties(prefix = "storage")
+public class StorageProperties implements IStorageProperties {
+
+	String backend = "drive";
+	String localPath = "storage";
+	int uploadThreads = 2;
+	long uploadSettleDelay = 2000;
+	long uploadRetryDelay = 1000;
+	long uploadMaximumRetryDelay = 300000;
+	int uploadMaximumAttempts = 10;
+	String uploadJournalFile = "upload-journal.log";
+
+	@Override
+	public String getBackend() {
+		return backend;
+	}
+
+	public void setBackend(String backend) {
+		this.backend = backend;
+	}
+
+	@Override
+	public String getLocalPath() {
+		return localPath;
+	}
+
+	public void setLocalPath(String localPath) {
+		this.localPath = localPath;
+	}
+
+	@Override
+	public int getUploadThreads() {
+		return uploadThreads;
+	}
+
+	public void setUploadThreads(int uploadThreads) {
+		this.uploadThreads = uploadThreads;
+	}
+
+	@Override
+	public long getUploadSettleDelay() {
+		return uploadSettleDelay;
+	}
+
+	public void setUploadSettleDelay(long uploadSettleDelay) {
+		this.uploadSettleDelay = uploadSettleDelay;
+	}
+
+	@Override
+	public long getUploadRetryDelay() {
+		return uploadRetryDelay;
+	}
+
+	public void setUploadRetryDelay(long uploadRetryDelay) {
+		this.uploadRetryDelay = uploadRetryDelay;
+	}
+
+	@Override
+	public long getUploadMaximumRetryDelay() {
+		return uploadMaximumRetryDelay;
+	}
+
+	public void setUploadMaximumRetryDelay(long uploadMaximumRetryDelay) {
+		this.uploadMaximumRetryDelay = uploadMaximumRetryDelay;
+	}
+
+	@Override
+	public int getUploadMaximumAttempts() {
+		return uploadMaximumAttempts;
+	}
+
+	public void setUploadMaximumAttempts(int uploadMaximumAttempts) {
+		this.uploadMaximumAttempts = uploadMaximumAttempts;
+	}
+
+	@Override
+	public String getUploadJournalFile() {
+		return uploadJournalFile;
+	}
+
+	public void setUploadJournalFile(String uploadJournalFile) {
+		this.uploadJournalFile = uploadJournalFile;
+	}
+
+}
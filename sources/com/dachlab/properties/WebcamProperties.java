@@ -19,6 +19,8 @@ public class WebcamProperties implements IWebcamProperties {
 	private int height;
 	private String path;
 	private String facesPath;
+	private String faceModelPath;
+	private int maximumFacesPerLabel;
 	private String predictedFacesPath;
 	private String predictedImagesPath;
 	private String predictedTextImagesPath;
@@ -31,6 +33,54 @@ public class WebcamProperties implements IWebcamProperties {
 	private String videoFilesPath;
 	private int videoSequenceLength;
 	private int videoFPS;
+	private int frameRingSize;
+	private Map<String, String> framePolicy;
+	private Map<String, Integer> framePolicyParameter;
+	private int matPoolCapacity;
+	private int userCacheSize;
+	private long userCacheTimeToLive;
+	private int recorderQueueSize;
+	private long maximumVideoFileSize;
+	private long preRollDuration;
+	private int preRollBufferSize;
+	private int preRollJpegQuality;
+	private String frameFormat;
+	private int frameQuality;
+	private double motionLearningRate;
+	private int motionThreshold;
+	private int motionMinimumArea;
+	private int motionScaledWidth;
+	private double motionChangedPixelRatio;
+	private double motionRegionPadding;
+	private int motionRegionMinimumSize;
+	private int faceDetectionInterval;
+	private double faceTrackingMinimumScore;
+	private int faceTrackingMaximumMisses;
+	private double faceDetectionScaleFactor;
+	private int faceDetectionMinNeighbors;
+	private int faceDetectionMinSize;
+	private int faceDetectionMaxSize;
+	private double bodyDetectionScaleFactor;
+	private int bodyDetectionMinNeighbors;
+	private int bodyDetectionMinSize;
+	private int bodyDetectionMaxSize;
+	private boolean adaptiveDetectionSize;
+	private double adaptiveDetectionMargin;
+	private int adaptiveDetectionFullScanInterval;
+	private boolean parallelDetection;
+	private int detectionTileSize;
+	private int detectionTileOverlap;
+	private int detectionParallelism;
+	private String imageFormat;
+	private int imageQuality;
+	private String predictedImagesFormat;
+	private int predictedImagesQuality;
+	private String predictedFacesFormat;
+	private int predictedFacesQuality;
+	private String facesFormat;
+	private int facesQuality;
+	private int imageWriterThreads;
+	private int imageWriterQueueSize;
 
 	@Override
 	public int getWidth() {
@@ -107,6 +157,24 @@ public class WebcamProperties implements IWebcamProperties {
 		this.facesPath = facesPath;
 	}
 
+	@Override
+	public String getFaceModelPath() {
+		return faceModelPath;
+	}
+
+	public void setFaceModelPath(String faceModelPath) {
+		this.faceModelPath = faceModelPath;
+	}
+
+	@Override
+	public int getMaximumFacesPerLabel() {
+		return maximumFacesPerLabel;
+	}
+
+	public void setMaximumFacesPerLabel(int maximumFacesPerLabel) {
+		this.maximumFacesPerLabel = maximumFacesPerLabel;
+	}
+
 	public void setPredictedFacesPath(String predictedFacesPath) {
 		this.predictedFacesPath = predictedFacesPath;
 	}
@@ -183,4 +251,436 @@ public class WebcamProperties implements IWebcamProperties {
 		this.videoFPS = videoFPS;
 	}
 
+	@Override
+	public int getFrameRingSize() {
+		return frameRingSize;
+	}
+
+	public void setFrameRingSize(int frameRingSize) {
+		this.frameRingSize = frameRingSize;
+	}
+
+	@Override
+	public Map<String, String> getFramePolicy() {
+		return framePolicy;
+	}
+
+	public void setFramePolicy(Map<String, String> framePolicy) {
+		this.framePolicy = framePolicy;
+	}
+
+	@Override
+	public Map<String, Integer> getFramePolicyParameter() {
+		return framePolicyParameter;
+	}
+
+	public void setFramePolicyParameter(Map<String, Integer> framePolicyParameter) {
+		this.framePolicyParameter = framePolicyParameter;
+	}
+
+	@Override
+	public int getMatPoolCapacity() {
+		return matPoolCapacity;
+	}
+
+	public void setMatPoolCapacity(int matPoolCapacity) {
+		this.matPoolCapacity = matPoolCapacity;
+	}
+
+	@Override
+	public int getUserCacheSize() {
+		return userCacheSize;
+	}
+
+	public void setUserCacheSize(int userCacheSize) {
+		this.userCacheSize = userCacheSize;
+	}
+
+	@Override
+	public long getUserCacheTimeToLive() {
+		return userCacheTimeToLive;
+	}
+
+	public void setUserCacheTimeToLive(long userCacheTimeToLive) {
+		this.userCacheTimeToLive = userCacheTimeToLive;
+	}
+
+	@Override
+	public int getRecorderQueueSize() {
+		return recorderQueueSize;
+	}
+
+	public void setRecorderQueueSize(int recorderQueueSize) {
+		this.recorderQueueSize = recorderQueueSize;
+	}
+
+	@Override
+	public long getMaximumVideoFileSize() {
+		return maximumVideoFileSize;
+	}
+
+	public void setMaximumVideoFileSize(long maximumVideoFileSize) {
+		this.maximumVideoFileSize = maximumVideoFileSize;
+	}
+
+	@Override
+	public long getPreRollDuration() {
+		return preRollDuration;
+	}
+
+	public void setPreRollDuration(long preRollDuration) {
+		this.preRollDuration = preRollDuration;
+	}
+
+	@Override
+	public int getPreRollBufferSize() {
+		return preRollBufferSize;
+	}
+
+	public void setPreRollBufferSize(int preRollBufferSize) {
+		this.preRollBufferSize = preRollBufferSize;
+	}
+
+	@Override
+	public int getPreRollJpegQuality() {
+		return preRollJpegQuality;
+	}
+
+	public void setPreRollJpegQuality(int preRollJpegQuality) {
+		this.preRollJpegQuality = preRollJpegQuality;
+	}
+
+	@Override
+	public String getFrameFormat() {
+		return frameFormat;
+	}
+
+	public void setFrameFormat(String frameFormat) {
+		this.frameFormat = frameFormat;
+	}
+
+	@Override
+	public int getFrameQuality() {
+		return frameQuality;
+	}
+
+	public void setFrameQuality(int frameQuality) {
+		this.frameQuality = frameQuality;
+	}
+
+	@Override
+	public double getMotionLearningRate() {
+		return motionLearningRate;
+	}
+
+	public void setMotionLearningRate(double motionLearningRate) {
+		this.motionLearningRate = motionLearningRate;
+	}
+
+	@Override
+	public int getMotionThreshold() {
+		return motionThreshold;
+	}
+
+	public void setMotionThreshold(int motionThreshold) {
+		this.motionThreshold = motionThreshold;
+	}
+
+	@Override
+	public int getMotionMinimumArea() {
+		return motionMinimumArea;
+	}
+
+	public void setMotionMinimumArea(int motionMinimumArea) {
+		this.motionMinimumArea = motionMinimumArea;
+	}
+
+	@Override
+	public int getMotionScaledWidth() {
+		return motionScaledWidth;
+	}
+
+	public void setMotionScaledWidth(int motionScaledWidth) {
+		this.motionScaledWidth = motionScaledWidth;
+	}
+
+	@Override
+	public double getMotionChangedPixelRatio() {
+		return motionChangedPixelRatio;
+	}
+
+	public void setMotionChangedPixelRatio(double motionChangedPixelRatio) {
+		this.motionChangedPixelRatio = motionChangedPixelRatio;
+	}
+
+	@Override
+	public double getMotionRegionPadding() {
+		return motionRegionPadding;
+	}
+
+	public void setMotionRegionPadding(double motionRegionPadding) {
+		this.motionRegionPadding = motionRegionPadding;
+	}
+
+	@Override
+	public int getMotionRegionMinimumSize() {
+		return motionRegionMinimumSize;
+	}
+
+	public void setMotionRegionMinimumSize(int motionRegionMinimumSize) {
+		this.motionRegionMinimumSize = motionRegionMinimumSize;
+	}
+
+	@Override
+	public int getFaceDetectionInterval() {
+		return faceDetectionInterval;
+	}
+
+	public void setFaceDetectionInterval(int faceDetectionInterval) {
+		this.faceDetectionInterval = faceDetectionInterval;
+	}
+
+	@Override
+	public double getFaceTrackingMinimumScore() {
+		return faceTrackingMinimumScore;
+	}
+
+	public void setFaceTrackingMinimumScore(double faceTrackingMinimumScore) {
+		this.faceTrackingMinimumScore = faceTrackingMinimumScore;
+	}
+
+	@Override
+	public int getFaceTrackingMaximumMisses() {
+		return faceTrackingMaximumMisses;
+	}
+
+	public void setFaceTrackingMaximumMisses(int faceTrackingMaximumMisses) {
+		this.faceTrackingMaximumMisses = faceTrackingMaximumMisses;
+	}
+
+	@Override
+	public double getFaceDetectionScaleFactor() {
+		return faceDetectionScaleFactor;
+	}
+
+	public void setFaceDetectionScaleFactor(double faceDetectionScaleFactor) {
+		this.faceDetectionScaleFactor = faceDetectionScaleFactor;
+	}
+
+	@Override
+	public int getFaceDetectionMinNeighbors() {
+		return faceDetectionMinNeighbors;
+	}
+
+	public void setFaceDetectionMinNeighbors(int faceDetectionMinNeighbors) {
+		this.faceDetectionMinNeighbors = faceDetectionMinNeighbors;
+	}
+
+	@Override
+	public int getFaceDetectionMinSize() {
+		return faceDetectionMinSize;
+	}
+
+	public void setFaceDetectionMinSize(int faceDetectionMinSize) {
+		this.faceDetectionMinSize = faceDetectionMinSize;
+	}
+
+	@Override
+	public int getFaceDetectionMaxSize() {
+		return faceDetectionMaxSize;
+	}
+
+	public void setFaceDetectionMaxSize(int faceDetectionMaxSize) {
+		this.faceDetectionMaxSize = faceDetectionMaxSize;
+	}
+
+	@Override
+	public double getBodyDetectionScaleFactor() {
+		return bodyDetectionScaleFactor;
+	}
+
+	public void setBodyDetectionScaleFactor(double bodyDetectionScaleFactor) {
+		this.bodyDetectionScaleFactor = bodyDetectionScaleFactor;
+	}
+
+	@Override
+	public int getBodyDetectionMinNeighbors() {
+		return bodyDetectionMinNeighbors;
+	}
+
+	public void setBodyDetectionMinNeighbors(int bodyDetectionMinNeighbors) {
+		this.bodyDetectionMinNeighbors = bodyDetectionMinNeighbors;
+	}
+
+	@Override
+	public int getBodyDetectionMinSize() {
+		return bodyDetectionMinSize;
+	}
+
+	public void setBodyDetectionMinSize(int bodyDetectionMinSize) {
+		this.bodyDetectionMinSize = bodyDetectionMinSize;
+	}
+
+	@Override
+	public int getBodyDetectionMaxSize() {
+		return bodyDetectionMaxSize;
+	}
+
+	public void setBodyDetectionMaxSize(int bodyDetectionMaxSize) {
+		this.bodyDetectionMaxSize = bodyDetectionMaxSize;
+	}
+
+	@Override
+	public boolean isAdaptiveDetectionSize() {
+		return adaptiveDetectionSize;
+	}
+
+	public void setAdaptiveDetectionSize(boolean adaptiveDetectionSize) {
+		this.adaptiveDetectionSize = adaptiveDetectionSize;
+	}
+
+	@Override
+	public double getAdaptiveDetectionMargin() {
+		return adaptiveDetectionMargin;
+	}
+
+	public void setAdaptiveDetectionMargin(double adaptiveDetectionMargin) {
+		this.adaptiveDetectionMargin = adaptiveDetectionMargin;
+	}
+
+	@Override
+	public int getAdaptiveDetectionFullScanInterval() {
+		return adaptiveDetectionFullScanInterval;
+	}
+
+	public void setAdaptiveDetectionFullScanInterval(int adaptiveDetectionFullScanInterval) {
+		this.adaptiveDetectionFullScanInterval = adaptiveDetectionFullScanInterval;
+	}
+
+	@Override
+	public boolean isParallelDetection() {
+		return parallelDetection;
+	}
+
+	public void setParallelDetection(boolean parallelDetection) {
+		this.parallelDetection = parallelDetection;
+	}
+
+	@Override
+	public int getDetectionTileSize() {
+		return detectionTileSize;
+	}
+
+	public void setDetectionTileSize(int detectionTileSize) {
+		this.detectionTileSize = detectionTileSize;
+	}
+
+	@Override
+	public int getDetectionTileOverlap() {
+		return detectionTileOverlap;
+	}
+
+	public void setDetectionTileOverlap(int detectionTileOverlap) {
+		this.detectionTileOverlap = detectionTileOverlap;
+	}
+
+	@Override
+	public int getDetectionParallelism() {
+		return detectionParallelism;
+	}
+
+	public void setDetectionParallelism(int detectionParallelism) {
+		this.detectionParallelism = detectionParallelism;
+	}
+
+	@Override
+	public String getImageFormat() {
+		return imageFormat;
+	}
+
+	public void setImageFormat(String imageFormat) {
+		this.imageFormat = imageFormat;
+	}
+
+	@Override
+	public int getImageQuality() {
+		return imageQuality;
+	}
+
+	public void setImageQuality(int imageQuality) {
+		this.imageQuality = imageQuality;
+	}
+
+	@Override
+	public String getPredictedImagesFormat() {
+		return predictedImagesFormat;
+	}
+
+	public void setPredictedImagesFormat(String predictedImagesFormat) {
+		this.predictedImagesFormat = predictedImagesFormat;
+	}
+
+	@Override
+	public int getPredictedImagesQuality() {
+		return predictedImagesQuality;
+	}
+
+	public void setPredictedImagesQuality(int predictedImagesQuality) {
+		this.predictedImagesQuality = predictedImagesQuality;
+	}
+
+	@Override
+	public String getPredictedFacesFormat() {
+		return predictedFacesFormat;
+	}
+
+	public void setPredictedFacesFormat(String predictedFacesFormat) {
+		this.predictedFacesFormat = predictedFacesFormat;
+	}
+
+	@Override
+	public int getPredictedFacesQuality() {
+		return predictedFacesQuality;
+	}
+
+	public void setPredictedFacesQuality(int predictedFacesQuality) {
+		this.predictedFacesQuality = predictedFacesQuality;
+	}
+
+	@Override
+	public String getFacesFormat() {
+		return facesFormat;
+	}
+
+	public void setFacesFormat(String facesFormat) {
+		this.facesFormat = facesFormat;
+	}
+
+	@Override
+	public int getFacesQuality() {
+		return facesQuality;
+	}
+
+	public void setFacesQuality(int facesQuality) {
+		this.facesQuality = facesQuality;
+	}
+
+	@Override
+	public int getImageWriterThreads() {
+		return imageWriterThreads;
+	}
+
+	public void setImageWriterThreads(int imageWriterThreads) {
+		this.imageWriterThreads = imageWriterThreads;
+	}
+
+	@Override
+	public int getImageWriterQueueSize() {
+		return imageWriterQueueSize;
+	}
+
+	public void setImageWriterQueueSize(int imageWriterQueueSize) {
+		this.imageWriterQueueSize = imageWriterQueueSize;
+	}
+
 }
@@ -6,6 +6,7 @@ import org.springframework.http.ResponseEntity;
 
 import com.dachlab.exception.ImageServiceException;
 import com.dachlab.model.User;
+import com.dachlab.service.util.CaptureStatistics;
 
 /**
  * Webcam rest services interface.
@@ -124,5 +125,12 @@ public interface IWecamRestService {
 	 * @throws ImageServiceException Exception if any issue
 	 */
 	void stopMotionDetection() throws ImageServiceException;
+
+	/**
+	 * Get the frame counters of the running captures.
+	 * @return the counters of each capture.
+	 * @throws ImageServiceException Exception if any issue
+	 */
+	ResponseEntity<List<CaptureStatistics>> getCaptureStatistics() throws ImageServiceException;
 	
 }
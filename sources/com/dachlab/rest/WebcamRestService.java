@@ -20,6 +20,7 @@ import org.springframework.web.multipart.MultipartFile;
 import com.dachlab.exception.ImageServiceException;
 import com.dachlab.model.User;
 import com.dachlab.service.IWebcamService;
+import com.dachlab.service.util.CaptureStatistics;
 
 import io.swagger.annotations.ApiImplicitParam;
 import io.swagger.annotations.ApiImplicitParams;
@@ -192,4 +193,14 @@ public class WebcamRestService implements IWecamRestService {
 		}
 	}
 
+	@Override
+	@RequestMapping(value = "/captureStatistics", method = RequestMethod.GET, produces = { MediaType.APPLICATION_JSON_VALUE })
+	public @ResponseBody ResponseEntity<List<CaptureStatistics>> getCaptureStatistics() throws ImageServiceException {
+		try {
+			return ResponseEntity.status(HttpStatus.OK).body(webcamService.getCaptureStatistics());
+		} catch (Exception e) {
+			throw new ImageServiceException("Failed to serve the captureStatistics request.", e);
+		}
+	}
+
 }
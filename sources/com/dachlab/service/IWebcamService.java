@@ -3,6 +3,7 @@ package com.dachlab.service;
 import java.util.List;
 
 import com.dachlab.model.User;
+import com.dachlab.service.util.CaptureStatistics;
 
 /**
  * Interface for handling the webcam.
@@ -108,4 +109,11 @@ public interface IWebcamService {
 	 */
 	void startMotionDetection();
 
+	/**
+	 * Get the frame counters of the running captures.
+	 * 
+	 * @return the counters of each capture.
+	 */
+	List<CaptureStatistics> getCaptureStatistics();
+
 }
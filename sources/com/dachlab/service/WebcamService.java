@@ -1,9 +1,7 @@
 package com.dachlab.service;
 
-import java.util.Date;
 import java.util.List;
 
-import org.apache.commons.lang3.time.DateUtils;
 import org.opencv.core.Mat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,6 +10,8 @@ import org.springframework.stereotype.Service;
 
 import com.dachlab.model.User;
 import com.dachlab.properties.IWebcamProperties;
+import com.dachlab.service.util.CaptureStatistics;
+import com.dachlab.service.util.MotionDetector;
 import com.dachlab.service.util.WebcamManager;
 
 /**
@@ -25,11 +25,8 @@ public class WebcamService implements IWebcamService {
 
 	private final Logger log = LoggerFactory.getLogger(this.getClass());
 
-	/** Background image used to detect motion. */
-	private Mat motionDetectionBackgroundFrame;
-
-	/** Last update date of the background image for motion detection. */
-	private Date motionDetectionBackgroundFrameLastUpdate = null;
+	/** Motion detection against the background model, created on first use. */
+	private MotionDetector motionDetector;
 
 	/** Indicate whether a motion detection is currently running. */
 	private boolean detectingMotion = false;
@@ -95,26 +92,20 @@ public class WebcamService implements IWebcamService {
 		return webcamManager.stopWatching();
 	}
 
-	/**
-	 * Get the background image for motion detection. Get a new background image
-	 * every 60 seconds if requested.
-	 * 
-	 * @return The background image for motion detection.
-	 */
-	private Mat getMotionDetectionBackgroundFrame() {
-		if (motionDetectionBackgroundFrameLastUpdate == null || System.currentTimeMillis() > DateUtils.addSeconds(motionDetectionBackgroundFrameLastUpdate, 60).getTime() && !webcamManager
-				.detectMotion(motionDetectionBackgroundFrame, webcamManager.getImagefromWebcam())) {
-			motionDetectionBackgroundFrame = webcamManager.getImagefromWebcam();
-			motionDetectionBackgroundFrameLastUpdate = new Date();
-		}
-		return motionDetectionBackgroundFrame;
-	}
-
 	@Override
-	public boolean detectMotion() {
-		Mat background = getMotionDetectionBackgroundFrame();
-		Mat frame = webcamManager.getImagefromWebcam();
-		return webcamManager.detectMotion(background, frame);
+	public synchronized boolean detectMotion() {
+		if (motionDetector == null) {
+			motionDetector = webcamManager.createMotionDetector();
+		}
+		final Mat frame = webcamManager.getImagefromWebcam();
+		if (frame == null) {
+			return false;
+		}
+		try {
+			return motionDetector.detect(frame);
+		} finally {
+			frame.release();
+		}
 	}
 
 	@Override
@@ -155,4 +146,9 @@ public class WebcamService implements IWebcamService {
 		webcamManager.stopMotionDetection();
 	}
 
+	@Override
+	public List<CaptureStatistics> getCaptureStatistics() {
+		return webcamManager.getCaptureStatistics();
+	}
+
 }
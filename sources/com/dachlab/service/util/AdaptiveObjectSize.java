@@ -0,0 +1,123 @@
+package com.dachlab.service.util;
+
+import java.util.List;
+
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+/**
+ * Size range of the objects recently found by a classifier. The objects seen
+ * by a fixed camera keep about the same size from one frame to the next, so
+ * the scan is narrowed to the sizes recently observed, with a margin. The full
+ * range is scanned again periodically, so that objects of other sizes are
+ * found too, and once no object has been found for a while. Thread safe.
+ *
+ * @author dcharles
+ */
+public class AdaptiveObjectSize {
+
+	/** Number of object sizes remembered. */
+	private static final int HISTORY = 16;
+
+	/** Margin around the sizes observed, as a ratio of the sizes. */
+	private final double margin;
+
+	/** Number of narrowed scans between two full scans. */
+	private final int fullScanInterval;
+
+	private final double[] widths = new double[HISTORY];
+
+	private final double[] heights = new double[HISTORY];
+
+	/** Number of sizes remembered. */
+	private int count;
+
+	/** Index of the next size remembered. */
+	private int next;
+
+	private int narrowedScans;
+
+	private int scansWithoutObject;
+
+	/**
+	 * Constructor using the adaptation parameters.
+	 *
+	 * @param margin
+	 *            margin around the sizes observed, as a ratio of the sizes.
+	 * @param fullScanInterval
+	 *            number of narrowed scans between two full scans.
+	 */
+	public AdaptiveObjectSize(final double margin, final int fullScanInterval) {
+		this.margin = margin;
+		this.fullScanInterval = fullScanInterval;
+	}
+
+	/**
+	 * Narrow the size range of detection parameters around the sizes recently
+	 * observed.
+	 *
+	 * @param parameters
+	 *            the configured parameters.
+	 * @return the parameters to scan with, the configured ones for a full scan.
+	 */
+	public synchronized DetectionParameters adapt(final DetectionParameters parameters) {
+		if (count == 0 || narrowedScans >= fullScanInterval) {
+			narrowedScans = 0;
+			return parameters;
+		}
+		narrowedScans++;
+		double minWidth = Double.MAX_VALUE;
+		double minHeight = Double.MAX_VALUE;
+		double maxWidth = 0;
+		double maxHeight = 0;
+		for (int i = 0; i < count; i++) {
+			minWidth = Math.min(minWidth, widths[i]);
+			minHeight = Math.min(minHeight, heights[i]);
+			maxWidth = Math.max(maxWidth, widths[i]);
+			maxHeight = Math.max(maxHeight, heights[i]);
+		}
+		final Size configuredMin = parameters.getMinSize();
+		final Size configuredMax = parameters.getMaxSize();
+		final Size minSize = new Size(Math.max(configuredMin.width, Math.floor(minWidth * (1 - margin))), Math.max(configuredMin.height, Math.floor(minHeight * (1 - margin))));
+		Size maxSize = new Size(Math.ceil(maxWidth * (1 + margin)), Math.ceil(maxHeight * (1 + margin)));
+		if (configuredMax.width > 0 && configuredMax.height > 0) {
+			maxSize = new Size(Math.min(configuredMax.width, maxSize.width), Math.min(configuredMax.height, maxSize.height));
+		}
+		return parameters.withSizes(minSize, maxSize);
+	}
+
+	/**
+	 * Remember the sizes of the objects found by a scan. The sizes are
+	 * forgotten once no object has been found for as long as a full scan
+	 * interval.
+	 *
+	 * @param objects
+	 *            the objects found.
+	 */
+	public synchronized void observe(final List<Rect> objects) {
+		if (objects.isEmpty()) {
+			if (++scansWithoutObject > fullScanInterval) {
+				reset();
+			}
+			return;
+		}
+		scansWithoutObject = 0;
+		for (Rect object : objects) {
+			widths[next] = object.width;
+			heights[next] = object.height;
+			next = (next + 1) % HISTORY;
+			count = Math.min(count + 1, HISTORY);
+		}
+	}
+
+	/**
+	 * Forget the sizes observed, the next scan is a full scan.
+	 */
+	public synchronized void reset() {
+		count = 0;
+		next = 0;
+		narrowedScans = 0;
+		scansWithoutObject = 0;
+	}
+
+}
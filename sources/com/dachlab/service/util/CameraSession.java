@@ -0,0 +1,385 @@
+package com.dachlab.service.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.PreDestroy;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Owner of the webcam device. The camera is opened once and kept opened, a
+ * reader thread continuously publishes the latest frame so that one-shot
+ * requests and capture sessions get a recent frame without opening the device
+ * themselves.
+ *
+ * Frames are recycled: a published frame is shared by all its readers and
+ * goes back to the free buffers once the last reader released it.
+ *
+ * @author dcharles
+ */
+@Component("cameraSession")
+public class CameraSession {
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	/** Number of frame buffers preallocated (triple buffering). */
+	private static final int PREALLOCATED_FRAMES = 3;
+
+	/** Maximum time to wait for the first frame after opening the camera. */
+	private static final long FIRST_FRAME_TIMEOUT = 5000;
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	/** Guards the latest frame, the free frames and the references. */
+	private final Object lock = new Object();
+
+	private final Deque<CapturedFrame> freeFrames = new ArrayDeque<CapturedFrame>();
+
+	private final List<IFrameListener> frameListeners = new CopyOnWriteArrayList<IFrameListener>();
+
+	private CapturedFrame latestFrame;
+
+	private long sequence = 0;
+
+	private int allocatedFrames = 0;
+
+	private volatile VideoCapture camera;
+
+	private volatile boolean running = false;
+
+	private Thread readerThread;
+
+	/**
+	 * Open the camera and start publishing frames. Does nothing if already
+	 * opened.
+	 *
+	 * @return true if the camera is opened.
+	 */
+	public synchronized boolean open() {
+		if (running) {
+			return true;
+		}
+		if (readerThread != null) {
+			// The previous reader may still be blocked in a read, it releases
+			// the device on exit.
+			try {
+				readerThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				log.error("Interrupted while waiting for the previous camera reader to terminate.", e);
+				return false;
+			}
+			readerThread = null;
+		}
+		log.debug("Opening the camera.");
+		final VideoCapture camera = new VideoCapture(0);
+		if (!camera.isOpened()) {
+			log.error("Unable to open the camera.");
+			camera.release();
+			return false;
+		}
+		this.camera = camera;
+		synchronized (lock) {
+			while (allocatedFrames < PREALLOCATED_FRAMES) {
+				freeFrames.push(new CapturedFrame(this));
+				allocatedFrames++;
+			}
+		}
+		running = true;
+		readerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readFrames(camera);
+			}
+		}, "camera-session");
+		readerThread.setDaemon(true);
+		readerThread.start();
+		log.debug("Camera opened.");
+		return true;
+	}
+
+	/**
+	 * Stop publishing frames. The camera is released by the reader thread once
+	 * its current read returns, never under it.
+	 */
+	@PreDestroy
+	public synchronized void close() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		camera = null;
+		try {
+			readerThread.join(1000);
+		} catch (InterruptedException e) {
+			log.error("Error while waiting for the camera reader to terminate.", e);
+		}
+		if (readerThread.isAlive()) {
+			log.warn("Camera reader still reading, the camera will be released when the read returns.");
+		}
+		synchronized (lock) {
+			if (latestFrame != null) {
+				releaseReference(latestFrame);
+				latestFrame = null;
+			}
+			for (CapturedFrame frame : freeFrames) {
+				frame.releaseBuffers();
+			}
+			allocatedFrames -= freeFrames.size();
+			freeFrames.clear();
+			lock.notifyAll();
+		}
+		log.debug("Camera session closed.");
+	}
+
+	/**
+	 * @return true if the camera is opened and frames are published.
+	 */
+	public boolean isOpened() {
+		return running;
+	}
+
+	/**
+	 * Read frames from the camera until the session is closed, then release
+	 * the camera.
+	 *
+	 * @param camera
+	 *            the camera opened for this reader.
+	 */
+	private void readFrames(final VideoCapture camera) {
+		try {
+			readFramesFrom(camera);
+		} finally {
+			camera.release();
+			log.debug("Camera released.");
+		}
+	}
+
+	/**
+	 * Read frames from the camera until the session is closed.
+	 *
+	 * @param camera
+	 *            the camera opened for this reader.
+	 */
+	private void readFramesFrom(final VideoCapture camera) {
+		while (running) {
+			final CapturedFrame frame = takeFreeFrame();
+			if (camera.read(frame.getImage())) {
+				if (publish(frame)) {
+					// The frame stays the latest one until the next publication
+					// by this thread, listeners can safely retain it.
+					for (IFrameListener frameListener : frameListeners) {
+						frameListener.onFrame(frame);
+					}
+				}
+			} else {
+				synchronized (lock) {
+					freeFrames.push(frame);
+				}
+				log.warn("Unable to read a frame from the camera.");
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					log.error("Unable to sleep.", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get a frame buffer that is not used by any reader.
+	 *
+	 * @return the frame buffer.
+	 */
+	private CapturedFrame takeFreeFrame() {
+		synchronized (lock) {
+			CapturedFrame frame = freeFrames.poll();
+			if (frame == null) {
+				frame = new CapturedFrame(this);
+				allocatedFrames++;
+				log.debug("All frame buffers are in use, " + allocatedFrames + " buffers allocated.");
+			}
+			return frame;
+		}
+	}
+
+	/**
+	 * Make the frame the latest one and wake up the readers waiting for it.
+	 *
+	 * @param frame
+	 *            frame just read.
+	 * @return true if published, false if the session has been closed.
+	 */
+	private boolean publish(final CapturedFrame frame) {
+		synchronized (lock) {
+			if (!running) {
+				frame.releaseBuffers();
+				allocatedFrames--;
+				return false;
+			}
+			frame.stamp(++sequence, System.currentTimeMillis());
+			frame.references = 1;
+			final CapturedFrame previousFrame = latestFrame;
+			latestFrame = frame;
+			if (previousFrame != null) {
+				releaseReference(previousFrame);
+			}
+			lock.notifyAll();
+			return true;
+		}
+	}
+
+	/**
+	 * Acquire the latest frame, opening the camera if needed. The frame must be
+	 * released by the caller.
+	 *
+	 * @return the latest frame or null if none could be read.
+	 */
+	public CapturedFrame acquireLatestFrame() {
+		if (!open()) {
+			return null;
+		}
+		return awaitFrame(0, FIRST_FRAME_TIMEOUT);
+	}
+
+	/**
+	 * Wait for a frame more recent than the given sequence number. The frame
+	 * must be released by the caller.
+	 *
+	 * @param afterSequence
+	 *            sequence number of the last frame seen by the caller.
+	 * @param timeout
+	 *            maximum time to wait in milliseconds.
+	 * @return the latest frame, or null if no new frame has been published in
+	 *         time or if the session is closed.
+	 */
+	public CapturedFrame awaitFrame(final long afterSequence, final long timeout) {
+		final long deadline = System.currentTimeMillis() + timeout;
+		synchronized (lock) {
+			while (running && (latestFrame == null || latestFrame.getSequence() <= afterSequence)) {
+				final long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return null;
+				}
+				try {
+					lock.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+			if (!running || latestFrame == null) {
+				return null;
+			}
+			latestFrame.references++;
+			return latestFrame;
+		}
+	}
+
+	/**
+	 * Get a private copy of the latest frame.
+	 *
+	 * @return the image or null if none could be read.
+	 */
+	public Mat getLatestImageCopy() {
+		final CapturedFrame frame = acquireLatestFrame();
+		if (frame == null) {
+			return null;
+		}
+		try {
+			return frame.copyImage();
+		} finally {
+			frame.release();
+		}
+	}
+
+	/**
+	 * Get the size of the frames delivered by the camera.
+	 *
+	 * @return the frame size.
+	 */
+	public Size getFrameSize() {
+		final VideoCapture camera = this.camera;
+		if (camera == null) {
+			return new Size();
+		}
+		return new Size((int) camera.get(Videoio.CAP_PROP_FRAME_WIDTH), (int) camera.get(Videoio.CAP_PROP_FRAME_HEIGHT));
+	}
+
+	/**
+	 * Register a listener notified from the reader thread of each frame
+	 * published.
+	 *
+	 * @param frameListener
+	 *            the listener.
+	 */
+	public void addFrameListener(final IFrameListener frameListener) {
+		frameListeners.add(frameListener);
+	}
+
+	/**
+	 * Unregister a frame listener.
+	 *
+	 * @param frameListener
+	 *            the listener.
+	 */
+	public void removeFrameListener(final IFrameListener frameListener) {
+		frameListeners.remove(frameListener);
+	}
+
+	/**
+	 * Add a reference on a frame already held by the caller.
+	 *
+	 * @param frame
+	 *            the frame.
+	 */
+	void retain(final CapturedFrame frame) {
+		synchronized (lock) {
+			frame.references++;
+		}
+	}
+
+	/**
+	 * Give a frame back.
+	 *
+	 * @param frame
+	 *            frame released by a reader.
+	 */
+	void release(final CapturedFrame frame) {
+		synchronized (lock) {
+			releaseReference(frame);
+		}
+	}
+
+	/**
+	 * Drop a reference on the frame and recycle its buffer if unused. Must be
+	 * called while holding the lock.
+	 *
+	 * @param frame
+	 *            the frame.
+	 */
+	private void releaseReference(final CapturedFrame frame) {
+		if (--frame.references > 0) {
+			return;
+		}
+		if (running) {
+			freeFrames.push(frame);
+		} else {
+			frame.releaseBuffers();
+			allocatedFrames--;
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+package com.dachlab.service.util;
+
+/**
+ * Frame counters of a capture.
+ * 
+ * @author dcharles
+ */
+public class CaptureStatistics {
+
+	private final String name;
+
+	private final FrameDropPolicy policy;
+
+	private final int policyParameter;
+
+	private final long handledFrames;
+
+	private final long droppedFrames;
+
+	private final long overrunFrames;
+
+	/**
+	 * Constructor using all the counters.
+	 * 
+	 * @param name
+	 *            name of the capture.
+	 * @param policy
+	 *            frame drop policy of the capture.
+	 * @param policyParameter
+	 *            parameter of the policy.
+	 * @param handledFrames
+	 *            number of frames handled.
+	 * @param droppedFrames
+	 *            number of frames skipped by the policy.
+	 * @param overrunFrames
+	 *            number of frames overwritten by the camera before being
+	 *            read.
+	 */
+	public CaptureStatistics(final String name, final FrameDropPolicy policy, final int policyParameter, final long handledFrames, final long droppedFrames, final long overrunFrames) {
+		this.name = name;
+		this.policy = policy;
+		this.policyParameter = policyParameter;
+		this.handledFrames = handledFrames;
+		this.droppedFrames = droppedFrames;
+		this.overrunFrames = overrunFrames;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public FrameDropPolicy getPolicy() {
+		return policy;
+	}
+
+	public int getPolicyParameter() {
+		return policyParameter;
+	}
+
+	public long getHandledFrames() {
+		return handledFrames;
+	}
+
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+
+	public long getOverrunFrames() {
+		return overrunFrames;
+	}
+
+	@Override
+	public String toString() {
+		return name + " (" + policy + " " + policyParameter + "): " + handledFrames + " handled, " + droppedFrames + " dropped, " + overrunFrames + " overrun";
+	}
+
+}
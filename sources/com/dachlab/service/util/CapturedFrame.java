@@ -0,0 +1,115 @@
+package com.dachlab.service.util;
+
+import org.opencv.core.Mat;
+
+/**
+ * Frame published by the {@link CameraSession}. The image is shared between
+ * all the readers of the frame and must not be modified. Each frame acquired
+ * from the session must be released once used so that its buffer can be
+ * recycled. The images derived from the frame are computed on demand and
+ * recycled with the frame.
+ *
+ * @author dcharles
+ */
+public class CapturedFrame {
+
+	private final CameraSession owner;
+
+	private final Mat image = new Mat();
+
+	private final FrameViews views = new FrameViews(image);
+
+	private long sequence;
+
+	private long timestamp;
+
+	/** Number of holders of the frame. Guarded by the session. */
+	int references;
+
+	/**
+	 * Constructor using the session owning the frame buffer.
+	 *
+	 * @param owner
+	 *            session the frame belongs to.
+	 */
+	CapturedFrame(final CameraSession owner) {
+		this.owner = owner;
+	}
+
+	/**
+	 * Set the frame identity once the image has been read.
+	 *
+	 * @param sequence
+	 *            sequence number of the frame.
+	 * @param timestamp
+	 *            capture time in milliseconds.
+	 */
+	void stamp(final long sequence, final long timestamp) {
+		this.sequence = sequence;
+		this.timestamp = timestamp;
+		views.invalidate();
+	}
+
+	/**
+	 * Free the buffers of the frame.
+	 */
+	void releaseBuffers() {
+		image.release();
+		views.release();
+	}
+
+	/**
+	 * Get the image of the frame. Read only.
+	 *
+	 * @return the shared image.
+	 */
+	public Mat getImage() {
+		return image;
+	}
+
+	/**
+	 * @return the images derived from the frame.
+	 */
+	FrameViews getViews() {
+		return views;
+	}
+
+	/**
+	 * Get a private copy of the image that the caller is free to modify.
+	 *
+	 * @return a copy of the image.
+	 */
+	public Mat copyImage() {
+		return image.clone();
+	}
+
+	/**
+	 * @return the sequence number of the frame, starting at 1.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return the capture time in milliseconds.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Keep the frame beyond the scope it has been received in. Each call must
+	 * be balanced by a {@link #release()}.
+	 */
+	public void retain() {
+		owner.retain(this);
+	}
+
+	/**
+	 * Give the frame back to the session.
+	 */
+	public void release() {
+		owner.release(this);
+	}
+
+}
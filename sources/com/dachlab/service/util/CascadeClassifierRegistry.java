@@ -0,0 +1,117 @@
+package com.dachlab.service.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opencv.objdetect.CascadeClassifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Registry of the cascade classifiers. Parsing the classifier XML costs more
+ * than a detection, so the classifiers loaded are shared and reused by all
+ * the threads. A classifier is not thread safe: it is borrowed for a
+ * detection and given back after, and another instance is loaded only when
+ * all the instances of the role are in use at the same time. The number of
+ * instances of a role is thus the number of detections running concurrently,
+ * not the number of threads.
+ *
+ * When the file configured for a role changes, the instances of the previous
+ * file are dropped, the ones in use as soon as they are given back.
+ *
+ * @author dcharles
+ */
+@Component("cascadeClassifierRegistry")
+public class CascadeClassifierRegistry {
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	/** Instances of the classifiers by role. */
+	private final Map<String, ClassifierPool> pools = new HashMap<String, ClassifierPool>();
+
+	/**
+	 * Borrow a classifier for a role. The classifier is reloaded if the file
+	 * configured for the role has changed. It must be given back with
+	 * {@link #release(String, String, CascadeClassifier)} once the detection
+	 * is done.
+	 *
+	 * @param role
+	 *            what the classifier detects, faces or bodies for instance.
+	 * @param classifierName
+	 *            path of the classifier file.
+	 * @return the classifier, for the current thread only until released.
+	 */
+	public CascadeClassifier acquire(final String role, final String classifierName) {
+		final ClassifierPool pool;
+		synchronized (pools) {
+			ClassifierPool rolePool = pools.get(role);
+			if (rolePool == null || !rolePool.classifierName.equals(classifierName)) {
+				if (rolePool != null) {
+					log.info("The " + role + " classifier changed to " + classifierName + ", dropping the " + rolePool.loaded + " instances of " + rolePool.classifierName + ".");
+					rolePool.free.clear();
+				}
+				rolePool = new ClassifierPool(classifierName);
+				pools.put(role, rolePool);
+			}
+			final CascadeClassifier classifier = rolePool.free.poll();
+			if (classifier != null) {
+				return classifier;
+			}
+			rolePool.loaded++;
+			pool = rolePool;
+		}
+		log.debug("Loading instance " + pool.loaded + " of the " + role + " classifier " + classifierName + ".");
+		final CascadeClassifier classifier = new CascadeClassifier(classifierName);
+		if (classifier.empty()) {
+			synchronized (pools) {
+				pool.loaded--;
+			}
+			throw new IllegalArgumentException("Unable to load the classifier " + classifierName + ".");
+		}
+		return classifier;
+	}
+
+	/**
+	 * Give a classifier back. A classifier of a file no longer configured is
+	 * dropped.
+	 *
+	 * @param role
+	 *            the role it has been borrowed for.
+	 * @param classifierName
+	 *            path of the file it has been loaded from.
+	 * @param classifier
+	 *            the classifier, null being ignored.
+	 */
+	public void release(final String role, final String classifierName, final CascadeClassifier classifier) {
+		if (classifier == null) {
+			return;
+		}
+		synchronized (pools) {
+			final ClassifierPool pool = pools.get(role);
+			if (pool != null && pool.classifierName.equals(classifierName)) {
+				pool.free.push(classifier);
+			}
+		}
+	}
+
+	/**
+	 * Instances of a classifier file.
+	 */
+	private static class ClassifierPool {
+
+		private final String classifierName;
+
+		private final Deque<CascadeClassifier> free = new ArrayDeque<CascadeClassifier>();
+
+		/** Number of instances loaded, free or in use. */
+		private int loaded = 0;
+
+		ClassifierPool(final String classifierName) {
+			this.classifierName = classifierName;
+		}
+	}
+
+}
@@ -0,0 +1,238 @@
+package com.dachlab.service.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+import org.opencv.videoio.VideoCapture;
+
+/**
+ * Benchmark of the classifier scan parameters on recorded frames. Each
+ * combination of parameters, with and without the adaptive size range, scans
+ * the frames prepared as the captures do, gray and equalized. The latency of
+ * the scans is reported with the detection rate, the ratio of frames where an
+ * object is found, and the recall against the OpenCV defaults, the ratio of
+ * the frames where the defaults find an object that the parameters find too.
+ *
+ * Usage: DetectionBenchmark classifier dataset [scaleFactors] [minNeighbors]
+ * [minSizes], the dataset being a directory of images or a video file and the
+ * parameters comma separated lists, 0 meaning no minimum size.
+ *
+ * @author dcharles
+ */
+public class DetectionBenchmark {
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	private static final double DEFAULT_SCALE_FACTOR = 1.1;
+
+	private static final int DEFAULT_MIN_NEIGHBORS = 3;
+
+	private static final double ADAPTIVE_MARGIN = 0.3;
+
+	private static final int ADAPTIVE_FULL_SCAN_INTERVAL = 10;
+
+	private final CascadeClassifier classifier;
+
+	private final File dataset;
+
+	private final Mat gray = new Mat();
+
+	private final Mat equalized = new Mat();
+
+	private final MatOfRect objects = new MatOfRect();
+
+	/** Frames where the defaults find an object, null until run. */
+	private boolean[] reference;
+
+	/**
+	 * Constructor using the classifier and the frames.
+	 *
+	 * @param classifierName
+	 *            path of the classifier file.
+	 * @param dataset
+	 *            directory of images or video file.
+	 */
+	public DetectionBenchmark(final String classifierName, final File dataset) {
+		this.classifier = new CascadeClassifier(classifierName);
+		if (classifier.empty()) {
+			throw new IllegalArgumentException("Unable to load the classifier " + classifierName + ".");
+		}
+		this.dataset = dataset;
+	}
+
+	public static void main(final String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: DetectionBenchmark classifier dataset [scaleFactors] [minNeighbors] [minSizes]");
+			System.exit(1);
+		}
+		final double[] scaleFactors = parse(args.length > 2 ? args[2] : "1.05,1.1,1.2,1.3");
+		final double[] minNeighbors = parse(args.length > 3 ? args[3] : "2,3,5");
+		final double[] minSizes = parse(args.length > 4 ? args[4] : "0,48,96");
+		final DetectionBenchmark benchmark = new DetectionBenchmark(args[0], new File(args[1]));
+		System.out.println(String.format("%-70s %8s %9s %9s %9s %7s", "parameters", "frames", "mean ms", "p95 ms", "detection", "recall"));
+		benchmark.run(new DetectionParameters(DEFAULT_SCALE_FACTOR, DEFAULT_MIN_NEIGHBORS, 0, 0), false);
+		for (double scaleFactor : scaleFactors) {
+			for (double neighbors : minNeighbors) {
+				for (double minSize : minSizes) {
+					final DetectionParameters parameters = new DetectionParameters(scaleFactor, (int) neighbors, (int) minSize, 0);
+					benchmark.run(parameters, false);
+					benchmark.run(parameters, true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Scan all the frames with some parameters and print the results. The
+	 * first run is the reference of the recall.
+	 *
+	 * @param parameters
+	 *            the parameters.
+	 * @param adaptive
+	 *            true to narrow the sizes around the objects recently found.
+	 */
+	public void run(final DetectionParameters parameters, final boolean adaptive) {
+		final AdaptiveObjectSize adaptiveObjectSize = adaptive ? new AdaptiveObjectSize(ADAPTIVE_MARGIN, ADAPTIVE_FULL_SCAN_INTERVAL) : null;
+		final List<Long> latencies = new ArrayList<Long>();
+		final List<Boolean> detected = new ArrayList<Boolean>();
+		forEachFrame(new FrameConsumer() {
+			@Override
+			public void accept(final Mat frame) {
+				if (frame.channels() > 1) {
+					Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
+					Imgproc.equalizeHist(gray, equalized);
+				} else {
+					Imgproc.equalizeHist(frame, equalized);
+				}
+				final DetectionParameters scanParameters = adaptive ? adaptiveObjectSize.adapt(parameters) : parameters;
+				final long start = System.nanoTime();
+				WebcamManager.detectObjects(classifier, equalized, objects, scanParameters);
+				latencies.add(System.nanoTime() - start);
+				if (adaptive) {
+					adaptiveObjectSize.observe(objects.toList());
+				}
+				detected.add(objects.rows() > 0);
+			}
+		});
+		print(parameters + (adaptive ? ", adaptive" : ""), latencies, detected);
+	}
+
+	/**
+	 * Print the results of a run.
+	 *
+	 * @param name
+	 *            the name of the run.
+	 * @param latencies
+	 *            the latencies of the scans, in nanoseconds.
+	 * @param detected
+	 *            for each frame, true if an object has been found.
+	 */
+	private void print(final String name, final List<Long> latencies, final List<Boolean> detected) {
+		final int frames = latencies.size();
+		if (frames == 0) {
+			System.out.println(String.format("%-70s %8d", name, 0));
+			return;
+		}
+		final long[] sorted = new long[frames];
+		long total = 0;
+		for (int i = 0; i < frames; i++) {
+			sorted[i] = latencies.get(i);
+			total += sorted[i];
+		}
+		Arrays.sort(sorted);
+		int detections = 0;
+		int referenceDetections = 0;
+		int found = 0;
+		if (reference == null) {
+			reference = new boolean[frames];
+			for (int i = 0; i < frames; i++) {
+				reference[i] = detected.get(i);
+			}
+		}
+		for (int i = 0; i < frames; i++) {
+			if (detected.get(i)) {
+				detections++;
+			}
+			if (i < reference.length && reference[i]) {
+				referenceDetections++;
+				if (detected.get(i)) {
+					found++;
+				}
+			}
+		}
+		System.out.println(String.format("%-70s %8d %9.2f %9.2f %8.1f%% %6.1f%%", name, frames, total / 1e6 / frames, sorted[(int) Math.min(frames - 1, Math.ceil(frames * 0.95) - 1)] / 1e6,
+				100.0 * detections / frames, referenceDetections == 0 ? 100.0 : 100.0 * found / referenceDetections));
+	}
+
+	/**
+	 * Read the frames of the dataset in order.
+	 *
+	 * @param consumer
+	 *            receives each frame, released once consumed.
+	 */
+	private void forEachFrame(final FrameConsumer consumer) {
+		final Mat frame = new Mat();
+		try {
+			if (dataset.isDirectory()) {
+				final File[] files = dataset.listFiles();
+				Arrays.sort(files);
+				for (File file : files) {
+					if (file.isFile()) {
+						final Mat image = Imgcodecs.imread(file.getAbsolutePath());
+						if (!image.empty()) {
+							consumer.accept(image);
+						}
+						image.release();
+					}
+				}
+			} else {
+				final VideoCapture video = new VideoCapture();
+				if (!video.open(dataset.getAbsolutePath())) {
+					throw new IllegalArgumentException("Unable to read the video " + dataset + ".");
+				}
+				try {
+					while (video.read(frame)) {
+						consumer.accept(frame);
+					}
+				} finally {
+					video.release();
+				}
+			}
+		} finally {
+			frame.release();
+		}
+	}
+
+	/**
+	 * @param values
+	 *            comma separated values.
+	 * @return the values.
+	 */
+	private static double[] parse(final String values) {
+		final String[] items = values.split(",");
+		final double[] parsed = new double[items.length];
+		for (int i = 0; i < items.length; i++) {
+			parsed[i] = Double.parseDouble(items[i].trim());
+		}
+		return parsed;
+	}
+
+	/**
+	 * Receiver of the frames of the dataset.
+	 */
+	private interface FrameConsumer {
+
+		void accept(Mat frame);
+	}
+
+}
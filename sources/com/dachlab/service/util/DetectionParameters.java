@@ -0,0 +1,111 @@
+package com.dachlab.service.util;
+
+import org.opencv.core.Size;
+
+/**
+ * Parameters of a cascade classifier scan: how fine the scales are, how many
+ * neighbor detections confirm an object and which object sizes are looked
+ * for. The smaller the size range and the larger the scale factor, the fewer
+ * windows are scanned.
+ *
+ * @author dcharles
+ */
+public class DetectionParameters {
+
+	/** No size limit, the classifier defaults apply. */
+	public static final Size NO_SIZE = new Size();
+
+	private final double scaleFactor;
+
+	private final int minNeighbors;
+
+	private final Size minSize;
+
+	private final Size maxSize;
+
+	/**
+	 * Constructor using the parameters.
+	 *
+	 * @param scaleFactor
+	 *            ratio between two scales scanned, greater than 1.
+	 * @param minNeighbors
+	 *            number of neighbor detections needed to keep an object.
+	 * @param minSize
+	 *            minimum size of the objects, {@link #NO_SIZE} for the size
+	 *            the classifier has been trained with.
+	 * @param maxSize
+	 *            maximum size of the objects, {@link #NO_SIZE} for the image
+	 *            size.
+	 */
+	public DetectionParameters(final double scaleFactor, final int minNeighbors, final Size minSize, final Size maxSize) {
+		this.scaleFactor = scaleFactor;
+		this.minNeighbors = minNeighbors;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Constructor using square size limits, as configured.
+	 *
+	 * @param scaleFactor
+	 *            ratio between two scales scanned, greater than 1.
+	 * @param minNeighbors
+	 *            number of neighbor detections needed to keep an object.
+	 * @param minSize
+	 *            minimum width and height of the objects in pixels, 0 for
+	 *            the size the classifier has been trained with.
+	 * @param maxSize
+	 *            maximum width and height of the objects in pixels, 0 for the
+	 *            image size.
+	 */
+	public DetectionParameters(final double scaleFactor, final int minNeighbors, final int minSize, final int maxSize) {
+		this(scaleFactor, minNeighbors, minSize > 0 ? new Size(minSize, minSize) : NO_SIZE, maxSize > 0 ? new Size(maxSize, maxSize) : NO_SIZE);
+	}
+
+	/**
+	 * Get the same parameters with another size range.
+	 *
+	 * @param minimumSize
+	 *            the minimum size of the objects.
+	 * @param maximumSize
+	 *            the maximum size of the objects.
+	 * @return the parameters.
+	 */
+	public DetectionParameters withSizes(final Size minimumSize, final Size maximumSize) {
+		return new DetectionParameters(scaleFactor, minNeighbors, minimumSize, maximumSize);
+	}
+
+	/**
+	 * @return the ratio between two scales scanned.
+	 */
+	public double getScaleFactor() {
+		return scaleFactor;
+	}
+
+	/**
+	 * @return the number of neighbor detections needed to keep an object.
+	 */
+	public int getMinNeighbors() {
+		return minNeighbors;
+	}
+
+	/**
+	 * @return the minimum size of the objects, {@link #NO_SIZE} if none.
+	 */
+	public Size getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * @return the maximum size of the objects, {@link #NO_SIZE} if none.
+	 */
+	public Size getMaxSize() {
+		return maxSize;
+	}
+
+	@Override
+	public String toString() {
+		return "scaleFactor=" + scaleFactor + ", minNeighbors=" + minNeighbors + ", minSize=" + (int) minSize.width + "x" + (int) minSize.height + ", maxSize=" + (int) maxSize.width + "x" + (int) maxSize.height;
+	}
+
+}
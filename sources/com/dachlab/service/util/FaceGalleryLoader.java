@@ -0,0 +1,210 @@
+package com.dachlab.service.util;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Load the faces gallery: one directory per name, holding the images of the
+ * faces. Images are decoded in parallel over a fork-join pool. Labels are
+ * assigned in the alphabetical order of the directories, so that they do not
+ * depend on the order the images are decoded in.
+ *
+ * @author dcharles
+ */
+public class FaceGalleryLoader {
+
+	/** Number of images below which a decode task is not split anymore. */
+	private static final int DECODE_THRESHOLD = 16;
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	private final File facesPath;
+
+	private final int maximumFacesPerLabel;
+
+	/** Images filter. */
+	private final FilenameFilter imageFilter = new FilenameFilter() {
+		public boolean accept(File dir, String name) {
+			return name.toLowerCase().endsWith(".png") || name.toLowerCase().endsWith(".jpg");
+		}
+	};
+
+	/**
+	 * Constructor using the gallery path.
+	 *
+	 * @param facesPath
+	 *            path of the gallery.
+	 * @param maximumFacesPerLabel
+	 *            maximum number of images loaded per name, the most recent
+	 *            ones. 0 if unlimited.
+	 */
+	public FaceGalleryLoader(final String facesPath, final int maximumFacesPerLabel) {
+		this.facesPath = new File(facesPath);
+		this.maximumFacesPerLabel = maximumFacesPerLabel;
+	}
+
+	/**
+	 * List the directories of the gallery in label order.
+	 *
+	 * @return the directories, one per name.
+	 */
+	public List<File> listLabelDirectories() {
+		final List<File> directories = new ArrayList<File>();
+		final File[] files = facesPath.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory()) {
+					directories.add(file);
+				}
+			}
+		}
+		Collections.sort(directories);
+		return directories;
+	}
+
+	/**
+	 * List the images of a gallery directory.
+	 *
+	 * @param directory
+	 *            the directory.
+	 * @return the images, sorted by name.
+	 */
+	public List<File> listImages(final File directory) {
+		final File[] images = directory.listFiles(imageFilter);
+		if (images == null) {
+			return new ArrayList<File>();
+		}
+		Arrays.sort(images);
+		return new ArrayList<File>(Arrays.asList(images));
+	}
+
+	/**
+	 * Decode the images of the gallery.
+	 *
+	 * @param labelDirectories
+	 *            the directories returned by {@link #listLabelDirectories()}.
+	 * @return the faces decoded, with the index of their directory as label.
+	 */
+	public List<LabeledFace> load(final List<File> labelDirectories) {
+		final List<File> files = new ArrayList<File>();
+		final List<Integer> fileLabels = new ArrayList<Integer>();
+		for (int label = 0; label < labelDirectories.size(); label++) {
+			for (File image : selectImages(listImages(labelDirectories.get(label)))) {
+				files.add(image);
+				fileLabels.add(label);
+			}
+		}
+
+		final Mat[] images = new Mat[files.size()];
+		final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		try {
+			pool.invoke(new DecodeTask(files, images, 0, images.length));
+		} finally {
+			pool.shutdown();
+		}
+
+		final List<LabeledFace> faces = new ArrayList<LabeledFace>(images.length);
+		for (int i = 0; i < images.length; i++) {
+			if (images[i] == null || images[i].empty()) {
+				log.warn("Unable to read the face " + files.get(i).getAbsolutePath() + ".");
+				continue;
+			}
+			faces.add(new LabeledFace(images[i], fileLabels.get(i)));
+		}
+		return faces;
+	}
+
+	/**
+	 * Keep the most recent images of a directory if the number of images per
+	 * label is limited.
+	 *
+	 * @param images
+	 *            the images of the directory.
+	 * @return the images to load.
+	 */
+	private List<File> selectImages(final List<File> images) {
+		if (maximumFacesPerLabel <= 0 || images.size() <= maximumFacesPerLabel) {
+			return images;
+		}
+		final List<File> recentImages = new ArrayList<File>(images);
+		Collections.sort(recentImages, new Comparator<File>() {
+			@Override
+			public int compare(File file1, File file2) {
+				final int comparison = Long.compare(file2.lastModified(), file1.lastModified());
+				return comparison != 0 ? comparison : file1.compareTo(file2);
+			}
+		});
+		return recentImages.subList(0, maximumFacesPerLabel);
+	}
+
+	/**
+	 * Decode a range of images, splitting it while large.
+	 */
+	private static class DecodeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<File> files;
+
+		private final Mat[] images;
+
+		private final int start;
+
+		private final int end;
+
+		DecodeTask(final List<File> files, final Mat[] images, final int start, final int end) {
+			this.files = files;
+			this.images = images;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= DECODE_THRESHOLD) {
+				for (int i = start; i < end; i++) {
+					images[i] = Imgcodecs.imread(files.get(i).getAbsolutePath(), 0);
+				}
+			} else {
+				final int middle = (start + end) >>> 1;
+				invokeAll(new DecodeTask(files, images, start, middle), new DecodeTask(files, images, middle, end));
+			}
+		}
+	}
+
+	/**
+	 * Face image with its label.
+	 */
+	public static class LabeledFace {
+
+		private final Mat image;
+
+		private final int label;
+
+		LabeledFace(final Mat image, final int label) {
+			this.image = image;
+			this.label = label;
+		}
+
+		public Mat getImage() {
+			return image;
+		}
+
+		public int getLabel() {
+			return label;
+		}
+	}
+
+}
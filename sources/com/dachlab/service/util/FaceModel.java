@@ -0,0 +1,204 @@
+package com.dachlab.service.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.opencv.core.Mat;
+import org.opencv.face.FaceRecognizer;
+import org.opencv.utils.Converters;
+
+/**
+ * Trained face recognizer with its labels and the manifest of the gallery
+ * files it has been trained from. Predictions run concurrently, only the
+ * incremental updates are exclusive and they are short. A full training
+ * builds a new model instead of modifying this one.
+ *
+ * @author dcharles
+ */
+public class FaceModel {
+
+	/** Prefix of the gallery files entries in the manifest. */
+	static final String FILE_PREFIX = "file.";
+
+	/** Prefix of the labels entries in the manifest. */
+	static final String LABEL_PREFIX = "label.";
+
+	private final FaceRecognizer faceRecognizer;
+
+	private final Map<String, Integer> labels = new HashMap<String, Integer>();
+
+	private final Map<Integer, String> names = new HashMap<Integer, String>();
+
+	private final Properties manifest;
+
+	/** Predictions share the recognizer, updates are exclusive. */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/** True once the recognizer has been released. */
+	private boolean released = false;
+
+	/**
+	 * Constructor using a trained recognizer and the manifest of the gallery
+	 * it has been trained from. The labels are read from the manifest.
+	 *
+	 * @param faceRecognizer
+	 *            the trained recognizer.
+	 * @param manifest
+	 *            the manifest.
+	 */
+	public FaceModel(final FaceRecognizer faceRecognizer, final Properties manifest) {
+		this.faceRecognizer = faceRecognizer;
+		this.manifest = manifest;
+		for (String key : manifest.stringPropertyNames()) {
+			if (key.startsWith(LABEL_PREFIX)) {
+				addLabel(Integer.parseInt(key.substring(LABEL_PREFIX.length())), manifest.getProperty(key));
+			}
+		}
+	}
+
+	/**
+	 * Predict the label of a face.
+	 *
+	 * @param face
+	 *            gray image of the face.
+	 * @return the prediction, null if the model has been released.
+	 */
+	public FacePrediction predict(final Mat face) {
+		final int[] label = { -1 };
+		final double[] confidence = { -1 };
+		lock.readLock().lock();
+		try {
+			if (released) {
+				return null;
+			}
+			faceRecognizer.predict(face, label, confidence);
+			return new FacePrediction(label[0], names.get(label[0]), confidence[0]);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Add faces to the model. The faces whose gallery file the model already
+	 * lists, trained from the gallery after they have been enrolled, are
+	 * skipped.
+	 *
+	 * @param faceNames
+	 *            name of each face.
+	 * @param faces
+	 *            gray images of the faces.
+	 * @param imageFiles
+	 *            gallery file of each face.
+	 * @return the number of faces added.
+	 */
+	public int update(final List<String> faceNames, final List<Mat> faces, final List<File> imageFiles) {
+		lock.writeLock().lock();
+		try {
+			final List<Mat> newFaces = new ArrayList<Mat>();
+			final List<java.lang.Integer> faceLabels = new ArrayList<java.lang.Integer>();
+			for (int i = 0; i < faces.size(); i++) {
+				final File imageFile = imageFiles.get(i);
+				final String fileKey = FILE_PREFIX + imageFile.getParentFile().getName() + "/" + imageFile.getName();
+				if (manifest.containsKey(fileKey)) {
+					continue;
+				}
+				Integer label = labels.get(faceNames.get(i));
+				if (label == null) {
+					label = labels.size();
+					addLabel(label, faceNames.get(i));
+					manifest.setProperty(LABEL_PREFIX + label, faceNames.get(i));
+				}
+				newFaces.add(faces.get(i));
+				faceLabels.add(label);
+				if (imageFile.isFile()) {
+					manifest.setProperty(fileKey, String.valueOf(imageFile.lastModified()));
+				}
+			}
+			if (!newFaces.isEmpty()) {
+				faceRecognizer.update(newFaces, Converters.vector_int_to_Mat(faceLabels));
+			}
+			return newFaces.size();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Free the training data of the recognizer, once the model has been
+	 * replaced. The predictions still running end first, the later ones get
+	 * no prediction.
+	 */
+	public void release() {
+		lock.writeLock().lock();
+		try {
+			released = true;
+			faceRecognizer.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the names by label.
+	 */
+	public Map<Integer, String> getNames() {
+		lock.readLock().lock();
+		try {
+			return new HashMap<Integer, String>(names);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Save the model and its manifest. The manifest is written last so that a
+	 * model saved partially is never considered up to date.
+	 *
+	 * @param modelFile
+	 *            file of the model.
+	 * @param manifestFile
+	 *            file of the manifest.
+	 * @throws IOException
+	 *             if the manifest cannot be written.
+	 */
+	public void save(final File modelFile, final File manifestFile) throws IOException {
+		// Saving only reads the model, predictions can go on.
+		lock.readLock().lock();
+		try {
+			manifestFile.delete();
+			faceRecognizer.save(modelFile.getAbsolutePath());
+			final OutputStream out = new FileOutputStream(manifestFile);
+			try {
+				manifest.store(out, "Faces the model has been trained from.");
+			} finally {
+				out.close();
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Associate a name to a label.
+	 *
+	 * @param label
+	 *            the label.
+	 * @param name
+	 *            the name.
+	 */
+	private void addLabel(final int label, final String name) {
+		labels.put(name, label);
+		names.put(label, name);
+		faceRecognizer.setLabelInfo(label, name);
+	}
+
+}
@@ -0,0 +1,60 @@
+package com.dachlab.service.util;
+
+/**
+ * Result of the prediction of a face.
+ * 
+ * @author dcharles
+ */
+public class FacePrediction {
+
+	private final int label;
+
+	private final String name;
+
+	private final double confidence;
+
+	/**
+	 * Constructor using all the fields.
+	 * 
+	 * @param label
+	 *            label found, -1 if none.
+	 * @param name
+	 *            name associated to the label, null if none.
+	 * @param confidence
+	 *            distance to the label found.
+	 */
+	public FacePrediction(final int label, final String name, final double confidence) {
+		this.label = label;
+		this.name = name;
+		this.confidence = confidence;
+	}
+
+	/**
+	 * @return the label found, -1 if none.
+	 */
+	public int getLabel() {
+		return label;
+	}
+
+	/**
+	 * @return the name associated to the label, null if none.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the distance to the label found, the lower the better.
+	 */
+	public double getConfidence() {
+		return confidence;
+	}
+
+	/**
+	 * @return true if a known face has been recognized.
+	 */
+	public boolean isRecognized() {
+		return label != -1 && name != null;
+	}
+
+}
@@ -5,7 +5,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.opencv.core.Mat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,6 +18,12 @@ public class FaceRecognitionCapturedImageHandler implements ICapturedImageHandle
 
 	private Map<String, Integer> facesFound = new HashMap<String, Integer>();
 
+	/** Faces are looked for where motion is detected, once some are found. */
+	private final MotionDetector motionDetector;
+
+	/** Faces are followed from frame to frame and recognized once. */
+	private final FaceTracker faceTracker;
+
 	/**
 	 * Constructor using the WebcamManager to predict faces.
 	 * 
@@ -27,12 +32,19 @@ public class FaceRecognitionCapturedImageHandler implements ICapturedImageHandle
 	 */
 	public FaceRecognitionCapturedImageHandler(final WebcamManager webcamManager) {
 		this.webcamManager = webcamManager;
+		this.motionDetector = webcamManager.createMotionDetector();
+		this.faceTracker = webcamManager.createFaceTracker();
 	}
 
 	@Override
-	public void handle(Mat image) {
+	public void handle(final FrameContext frame) {
+		final boolean motion = motionDetector.detect(frame);
 		if (webcamManager.getAuthenticatedUSer() == null) {
-			List<User> users = webcamManager.predictFaces(image);
+			List<User> users = faceTracker.update(frame, webcamManager.getRegionsOfInterest(motionDetector, frame.getSize()));
+			if (motion && !webcamManager.getWebcamProperties().getPredictedImagesPath().equals("")) {
+				faceTracker.drawFaces(frame.getImage());
+				webcamManager.savePredictedImage(frame.getImage());
+			}
 			if (users.size() != 0) {
 				log.info(users.size() + " faces detected. " + Arrays.toString(users.toArray(new User[users.size()])));
 				for (User user : users) {
@@ -40,13 +52,13 @@ public class FaceRecognitionCapturedImageHandler implements ICapturedImageHandle
 					log.debug("   Face found : " + user.getUserName() + "(" + facesFound
 							.get(user.getUserName()) + ")      " + (int) facesFound.get(user.getUserName()) + "?==" + (int) webcamManager.getWebcamProperties().getAuthenticationConfidenceFactor());
 					if ((int) facesFound.get(user.getUserName()) == (int) webcamManager.getWebcamProperties().getAuthenticationConfidenceFactor()) {
-						User userFound = webcamManager.getUserService().getByUserName(user.getUserName());
+						User userFound = webcamManager.getUserCache().getByUserName(user.getUserName());
 						if (userFound != null) {
 							webcamManager.setAuthenticatedUSer(userFound);
-							log.debug("   User " + user.getUserName() + " found in the DB.");
+							log.debug("   User " + user.getUserName() + " found.");
 						} else {
 							webcamManager.setAuthenticatedUSer(null);
-							log.debug("   User not found in the DB, failed to authenticate.");
+							log.debug("   User not found, failed to authenticate.");
 						}
 					}
 				}
@@ -0,0 +1,475 @@
+package com.dachlab.service.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.face.Face;
+import org.opencv.face.FaceRecognizer;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.utils.Converters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.dachlab.properties.IWebcamProperties;
+
+/**
+ * Face recognition model trained from the faces gallery. The trained model is
+ * saved to the model file along with a manifest listing the gallery files it
+ * has been trained from, and reloaded at startup. The model is trained again
+ * only when the gallery has changed.
+ *
+ * Faces enrolled afterwards are added to the model in the background by
+ * batches, without training the whole gallery again.
+ *
+ * Predictions use the current model without waiting for a training: a new
+ * model is trained on the side and swapped in once ready.
+ *
+ * @author dcharles
+ */
+@Component("faceRecognitionModel")
+public class FaceRecognitionModel {
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	/** Extension of the manifest file, next to the model file. */
+	private static final String MANIFEST_EXTENSION = ".manifest";
+
+	/** Maximum number of faces waiting to be added to the model. */
+	private static final int MAXIMUM_PENDING_FACES = 256;
+
+	/** Maximum number of faces added to the model at once. */
+	private static final int MAXIMUM_BATCH_SIZE = 32;
+
+	/** Time to wait for more faces before updating the model, in ms. */
+	private static final long BATCH_DELAY = 500;
+
+	/** Minimum time between two saves of an updated model, in ms. */
+	private static final long SAVE_INTERVAL = 60000;
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private IWebcamProperties webcamProperties;
+
+	@Autowired
+	private UserCache userCache;
+
+	/** Current model, null until trained or loaded. */
+	private volatile FaceModel model;
+
+	/** Serializes the trainings, the loading and the updates of the model. */
+	private final Object trainingLock = new Object();
+
+	/** Faces waiting to be added to the model. */
+	private final BlockingQueue<EnrolledFace> pendingFaces = new ArrayBlockingQueue<EnrolledFace>(MAXIMUM_PENDING_FACES);
+
+	/** True if the model has been updated since it has been saved. */
+	private boolean modified = false;
+
+	private long lastSaveTime = 0;
+
+	/**
+	 * Load or train the model in the background at startup.
+	 */
+	@PostConstruct
+	public void initialize() {
+		final Thread loader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				ensureTrained();
+			}
+		}, "face-model-loader");
+		loader.setDaemon(true);
+		loader.start();
+		final Thread updater = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				updateFaces();
+			}
+		}, "face-model-updater");
+		updater.setDaemon(true);
+		updater.start();
+	}
+
+	/**
+	 * Save the model if updated since the last save.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		synchronized (trainingLock) {
+			if (modified) {
+				save(model);
+			}
+		}
+	}
+
+	/**
+	 * Make sure the model is trained, loading the saved model if the gallery
+	 * has not changed since, or training it otherwise.
+	 *
+	 * @return true if the model is trained.
+	 */
+	public boolean ensureTrained() {
+		if (model != null) {
+			return true;
+		}
+		synchronized (trainingLock) {
+			if (model != null) {
+				return true;
+			}
+			if (load()) {
+				return true;
+			}
+			return learnFaces();
+		}
+	}
+
+	/**
+	 * Train a new model from all the faces of the gallery, save it and use it
+	 * in place of the current one. Predictions go on with the current model
+	 * during the training.
+	 *
+	 * @return true if succeeded.
+	 */
+	public boolean learnFaces() {
+		synchronized (trainingLock) {
+			log.debug("Starting to learn faces from" + webcamProperties.getFacesPath() + ".");
+			final long startTime = System.currentTimeMillis();
+			final List<Mat> images = new ArrayList<Mat>();
+			List<java.lang.Integer> labels = new ArrayList<java.lang.Integer>();
+
+			try {
+				final FaceGalleryLoader galleryLoader = getGalleryLoader();
+				final List<File> labelDirectories = galleryLoader.listLabelDirectories();
+				for (FaceGalleryLoader.LabeledFace face : galleryLoader.load(labelDirectories)) {
+					images.add(face.getImage());
+					labels.add(face.getLabel());
+				}
+				log.debug(images.size() + " faces of " + labelDirectories.size() + " names read in " + (System.currentTimeMillis() - startTime) + " ms.");
+				final FaceRecognizer faceRecognizer = createFaceRecognizer();
+				faceRecognizer.train(images, Converters.vector_int_to_Mat(labels));
+				final FaceModel newModel = new FaceModel(faceRecognizer, getGalleryManifest(galleryLoader, labelDirectories));
+				use(newModel);
+				log.info(images.size() + " faces learnt in " + (System.currentTimeMillis() - startTime) + " ms.");
+				save(newModel);
+				userCache.reset(newModel.getNames());
+				return true;
+			} catch (Exception e) {
+				log.error("Failed to learn the faces.", e);
+				return false;
+			} finally {
+				for (Mat image : images) {
+					image.release();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Predict the label of a face with the current model.
+	 *
+	 * @param face
+	 *            gray image of the face.
+	 * @return the prediction, with a -1 label if the model cannot be trained.
+	 */
+	public FacePrediction predict(final Mat face) {
+		if (!ensureTrained()) {
+			return new FacePrediction(-1, null, -1);
+		}
+		FacePrediction prediction;
+		// The model read may be replaced and released before predicting.
+		while ((prediction = model.predict(face)) == null) {
+			log.debug("Face model replaced while predicting, predicting again.");
+		}
+		return prediction;
+	}
+
+	/**
+	 * Use a new model in place of the current one, which is released. Must
+	 * be called while holding the training lock.
+	 *
+	 * @param newModel
+	 *            the new model.
+	 */
+	private void use(final FaceModel newModel) {
+		final FaceModel previousModel = model;
+		model = newModel;
+		if (previousModel != null) {
+			previousModel.release();
+		}
+	}
+
+	/**
+	 * Add a face saved in the gallery to the model. The model is updated in
+	 * the background.
+	 *
+	 * @param name
+	 *            name associated to the face.
+	 * @param face
+	 *            image of the face, released once added to the model.
+	 * @param imageFile
+	 *            file the face has been saved to in the gallery.
+	 */
+	public void enroll(final String name, final Mat face, final File imageFile) {
+		// A new sample does not change the users of the labels, the cache is
+		// reset by the trainings and filled with the new labels.
+		if (!pendingFaces.offer(new EnrolledFace(name, face, imageFile))) {
+			log.warn("Too many faces waiting to be learnt, " + imageFile.getName() + " will be learnt at the next training.");
+			face.release();
+		}
+	}
+
+	/**
+	 * Add the enrolled faces to the model by batches, until the thread is
+	 * interrupted.
+	 */
+	private void updateFaces() {
+		final List<EnrolledFace> batch = new ArrayList<EnrolledFace>();
+		try {
+			while (true) {
+				batch.add(pendingFaces.take());
+				EnrolledFace enrolledFace;
+				while (batch.size() < MAXIMUM_BATCH_SIZE && (enrolledFace = pendingFaces.poll(BATCH_DELAY, TimeUnit.MILLISECONDS)) != null) {
+					batch.add(enrolledFace);
+				}
+				update(batch);
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			log.debug("Face model updater interrupted.");
+		}
+	}
+
+	/**
+	 * Add a batch of faces to the model.
+	 *
+	 * @param batch
+	 *            the faces.
+	 */
+	private void update(final List<EnrolledFace> batch) {
+		final List<String> names = new ArrayList<String>();
+		final List<Mat> images = new ArrayList<Mat>();
+		final List<File> imageFiles = new ArrayList<File>();
+		try {
+			synchronized (trainingLock) {
+				if (!ensureTrained()) {
+					return;
+				}
+				for (EnrolledFace enrolledFace : batch) {
+					if (enrolledFace.face.channels() > 1) {
+						Imgproc.cvtColor(enrolledFace.face, enrolledFace.face, Imgproc.COLOR_BGR2GRAY);
+					}
+					names.add(enrolledFace.name);
+					images.add(enrolledFace.face);
+					imageFiles.add(enrolledFace.imageFile);
+				}
+				final long startTime = System.currentTimeMillis();
+				final int added = model.update(names, images, imageFiles);
+				if (added == 0) {
+					log.debug(images.size() + " faces already learnt by the last training.");
+					return;
+				}
+				modified = true;
+				log.debug(added + " faces added to the model in " + (System.currentTimeMillis() - startTime) + " ms.");
+				if (System.currentTimeMillis() - lastSaveTime > SAVE_INTERVAL) {
+					save(model);
+				}
+				userCache.fill(model.getNames());
+			}
+		} catch (Exception e) {
+			log.error("Unable to add " + batch.size() + " faces to the model.", e);
+		} finally {
+			for (EnrolledFace enrolledFace : batch) {
+				enrolledFace.face.release();
+			}
+		}
+	}
+
+	/**
+	 * @return true if the model is trained.
+	 */
+	public boolean isTrained() {
+		return model != null;
+	}
+
+	/**
+	 * Load the saved model if it has been trained from the current gallery.
+	 *
+	 * @return true if loaded.
+	 */
+	private boolean load() {
+		final File modelFile = getModelFile();
+		if (modelFile == null || !modelFile.isFile() || !getManifestFile().isFile()) {
+			return false;
+		}
+		try {
+			final long startTime = System.currentTimeMillis();
+			final Properties manifest = readManifest(getManifestFile());
+			final FaceGalleryLoader galleryLoader = getGalleryLoader();
+			final Properties galleryManifest = getGalleryManifest(galleryLoader, galleryLoader.listLabelDirectories());
+			if (!getFileEntries(galleryManifest).equals(getFileEntries(manifest))) {
+				log.info("The faces gallery has changed since the model " + modelFile.getAbsolutePath() + " has been saved.");
+				return false;
+			}
+			final FaceRecognizer faceRecognizer = createFaceRecognizer();
+			faceRecognizer.load(modelFile.getAbsolutePath());
+			use(new FaceModel(faceRecognizer, manifest));
+			lastSaveTime = System.currentTimeMillis();
+			log.info("Face recognition model " + modelFile.getAbsolutePath() + " loaded in " + (System.currentTimeMillis() - startTime) + " ms.");
+			userCache.reset(model.getNames());
+			return true;
+		} catch (Exception e) {
+			log.error("Unable to load the face recognition model " + modelFile.getAbsolutePath() + ".", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Save a model if the model file is configured.
+	 *
+	 * @param faceModel
+	 *            the model.
+	 */
+	private void save(final FaceModel faceModel) {
+		final File modelFile = getModelFile();
+		modified = false;
+		lastSaveTime = System.currentTimeMillis();
+		if (modelFile == null || faceModel == null) {
+			return;
+		}
+		try {
+			faceModel.save(modelFile, getManifestFile());
+			log.debug("Face recognition model saved to " + modelFile.getAbsolutePath() + ".");
+		} catch (Exception e) {
+			log.error("Unable to save the face recognition model to " + modelFile.getAbsolutePath() + ".", e);
+		}
+	}
+
+	/**
+	 * @return a new untrained recognizer.
+	 */
+	private FaceRecognizer createFaceRecognizer() {
+		return Face.createLBPHFaceRecognizer(1, 8, 8, 8, 130);
+	}
+
+	/**
+	 * Build the manifest of the gallery: the labels and all the files with
+	 * their last modification time, including the ones not loaded because of
+	 * the limit of faces per label.
+	 *
+	 * @param galleryLoader
+	 *            loader of the gallery.
+	 * @param labelDirectories
+	 *            the directories of the gallery in label order.
+	 * @return the manifest.
+	 */
+	private Properties getGalleryManifest(final FaceGalleryLoader galleryLoader, final List<File> labelDirectories) {
+		final Properties manifest = new Properties();
+		for (int label = 0; label < labelDirectories.size(); label++) {
+			final File dir = labelDirectories.get(label);
+			manifest.setProperty(FaceModel.LABEL_PREFIX + label, dir.getName());
+			for (File faceImage : galleryLoader.listImages(dir)) {
+				manifest.setProperty(FaceModel.FILE_PREFIX + dir.getName() + "/" + faceImage.getName(), String.valueOf(faceImage.lastModified()));
+			}
+		}
+		return manifest;
+	}
+
+	/**
+	 * @return the loader of the faces gallery.
+	 */
+	private FaceGalleryLoader getGalleryLoader() {
+		return new FaceGalleryLoader(webcamProperties.getFacesPath(), webcamProperties.getMaximumFacesPerLabel());
+	}
+
+	/**
+	 * Get the gallery files listed in a manifest.
+	 *
+	 * @param manifest
+	 *            the manifest.
+	 * @return the files, relative to the gallery.
+	 */
+	private Properties getFileEntries(final Properties manifest) {
+		final Properties files = new Properties();
+		for (String key : manifest.stringPropertyNames()) {
+			if (key.startsWith(FaceModel.FILE_PREFIX)) {
+				files.setProperty(key.substring(FaceModel.FILE_PREFIX.length()), manifest.getProperty(key));
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Read a manifest file.
+	 *
+	 * @param manifestFile
+	 *            the file.
+	 * @return the manifest.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	private Properties readManifest(final File manifestFile) throws IOException {
+		final Properties manifest = new Properties();
+		final InputStream in = new FileInputStream(manifestFile);
+		try {
+			manifest.load(in);
+		} finally {
+			in.close();
+		}
+		return manifest;
+	}
+
+	/**
+	 * @return the model file, or null if the model is not persisted.
+	 */
+	private File getModelFile() {
+		final String faceModelPath = webcamProperties.getFaceModelPath();
+		if (faceModelPath == null || faceModelPath.equals("")) {
+			return null;
+		}
+		return new File(faceModelPath);
+	}
+
+	/**
+	 * @return the manifest file.
+	 */
+	private File getManifestFile() {
+		return new File(webcamProperties.getFaceModelPath() + MANIFEST_EXTENSION);
+	}
+
+	/**
+	 * Face waiting to be added to the model.
+	 */
+	private static class EnrolledFace {
+
+		private final String name;
+
+		private final Mat face;
+
+		private final File imageFile;
+
+		EnrolledFace(final String name, final Mat face, final File imageFile) {
+			this.name = name;
+			this.face = face;
+			this.imageFile = imageFile;
+		}
+	}
+
+}
@@ -0,0 +1,306 @@
+package com.dachlab.service.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.Core.MinMaxLocResult;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+import com.dachlab.model.User;
+
+/**
+ * Tracker of the faces seen by a capture. A face found by the detector starts
+ * a track, its name is predicted once for the whole track, at each detection
+ * until the face is recognized. From one frame to the next, the face is
+ * followed by matching the image of the face taken at its last detection
+ * around its previous position, which costs far less than scanning the
+ * frame with the classifier. The detector runs again every few
+ * frames, or as soon as a face is lost, and its faces are associated with the
+ * tracks by overlap. Not thread safe.
+ *
+ * The detections look where motion is detected only. The whole frame is
+ * scanned on the first frame, so that a person already still when the
+ * capture starts, part of the motion background, is found too, then again
+ * only after a long time with neither faces followed nor motion, in case the
+ * first frame missed someone.
+ *
+ * @author dcharles
+ */
+public class FaceTracker {
+
+	/** Minimum overlap of a face detected with a track to be the same face. */
+	private static final double MINIMUM_OVERLAP = 0.3;
+
+	/** Margin around a face where it is looked for, as a ratio of its size. */
+	private static final double SEARCH_MARGIN = 0.5;
+
+	/** Number of idle frames between two scans of the whole frame. */
+	private static final int FULL_DETECTION_INTERVAL = 300;
+
+	private final WebcamManager webcamManager;
+
+	/** Number of frames with motion between two detections. */
+	private final int detectionInterval;
+
+	/** Minimum matching score for a face to be followed. */
+	private final double minimumScore;
+
+	/** Number of detections a followed face may be missed by. */
+	private final int maximumMisses;
+
+	private final List<FaceTrack> tracks = new ArrayList<FaceTrack>();
+
+	/** Buffer for the matching scores. */
+	private final Mat scores = new Mat();
+
+	private int framesSinceDetection;
+
+	/** Number of idle frames, no face followed and no motion, since the last scan. */
+	private int framesSinceFullDetection;
+
+	/**
+	 * Constructor using the tracking parameters.
+	 *
+	 * @param webcamManager
+	 *            the manager detecting and recognizing the faces.
+	 * @param detectionInterval
+	 *            number of frames with motion between two detections of the
+	 *            faces.
+	 * @param minimumScore
+	 *            minimum matching score, from 0 to 1, for a face to be
+	 *            followed without a detection.
+	 * @param maximumMisses
+	 *            number of consecutive detections a followed face may be
+	 *            missed by before its track is dropped.
+	 */
+	public FaceTracker(final WebcamManager webcamManager, final int detectionInterval, final double minimumScore, final int maximumMisses) {
+		this.webcamManager = webcamManager;
+		this.detectionInterval = Math.max(1, detectionInterval);
+		this.minimumScore = minimumScore;
+		this.maximumMisses = maximumMisses;
+	}
+
+	/**
+	 * Follow the faces in a frame. Without motion the faces have not moved
+	 * and are kept as they are. Without faces nor motion, the whole frame is
+	 * scanned on the first frame, then every
+	 * {@value #FULL_DETECTION_INTERVAL} frames.
+	 *
+	 * @param frame
+	 *            the frame.
+	 * @param regions
+	 *            the regions where motion has been detected, empty if none.
+	 * @return the users of the faces in the frame.
+	 */
+	public List<User> update(final FrameContext frame, final List<Rect> regions) {
+		if (!regions.isEmpty()) {
+			framesSinceDetection++;
+			boolean lost = false;
+			for (FaceTrack track : tracks) {
+				lost |= !follow(track, frame.getGray());
+			}
+			if (lost || tracks.isEmpty() || framesSinceDetection >= detectionInterval) {
+				detect(frame, regions);
+				framesSinceDetection = 0;
+				framesSinceFullDetection = 1;
+			}
+		} else if (tracks.isEmpty()) {
+			if (framesSinceFullDetection == 0) {
+				detect(frame, null);
+				framesSinceDetection = 0;
+			}
+			framesSinceFullDetection = (framesSinceFullDetection + 1) % FULL_DETECTION_INTERVAL;
+		}
+		final List<User> users = new ArrayList<User>(tracks.size());
+		for (FaceTrack track : tracks) {
+			users.add(track.user);
+		}
+		return users;
+	}
+
+	/**
+	 * Draw the faces followed and their names.
+	 *
+	 * @param image
+	 *            the image to draw on.
+	 */
+	public void drawFaces(final Mat image) {
+		for (FaceTrack track : tracks) {
+			webcamManager.drawRectangleOnImage(image, track.box.tl(), track.box.br(), track.user.getUserName());
+		}
+	}
+
+	/**
+	 * Forget the faces followed.
+	 */
+	public void reset() {
+		for (FaceTrack track : tracks) {
+			track.template.release();
+		}
+		tracks.clear();
+		framesSinceDetection = 0;
+		framesSinceFullDetection = 0;
+	}
+
+	/**
+	 * Free the buffers.
+	 */
+	public void release() {
+		reset();
+		scores.release();
+	}
+
+	/**
+	 * Look for a face around its previous position.
+	 *
+	 * @param track
+	 *            the track of the face, moved if the face is found.
+	 * @param gray
+	 *            the frame in gray.
+	 * @return true if the face is found.
+	 */
+	private boolean follow(final FaceTrack track, final Mat gray) {
+		final Rect window = pad(track.box, SEARCH_MARGIN, gray);
+		if (window.width < track.template.cols() || window.height < track.template.rows()) {
+			track.score = 0;
+			return false;
+		}
+		final Mat searchImage = gray.submat(window);
+		try {
+			Imgproc.matchTemplate(searchImage, track.template, scores, Imgproc.TM_CCOEFF_NORMED);
+		} finally {
+			searchImage.release();
+		}
+		final MinMaxLocResult match = Core.minMaxLoc(scores);
+		track.score = match.maxVal;
+		if (track.score < minimumScore) {
+			return false;
+		}
+		track.box = new Rect(window.x + (int) match.maxLoc.x, window.y + (int) match.maxLoc.y, track.box.width, track.box.height);
+		return true;
+	}
+
+	/**
+	 * Detect the faces and associate them with the tracks. The faces not
+	 * associated start new tracks and are recognized, the tracks lost or
+	 * missed too many times are dropped.
+	 *
+	 * @param frame
+	 *            the frame.
+	 * @param regions
+	 *            the regions where motion has been detected, null to scan
+	 *            the whole frame.
+	 */
+	private void detect(final FrameContext frame, final List<Rect> regions) {
+		final Mat gray = frame.getGray();
+		List<Rect> detectionRegions = null;
+		if (regions != null) {
+			// The faces followed are looked for too, even if they have not
+			// moved.
+			detectionRegions = new ArrayList<Rect>(regions);
+			for (FaceTrack track : tracks) {
+				detectionRegions.add(pad(track.box, SEARCH_MARGIN, gray));
+			}
+			detectionRegions = RegionsOfInterest.merge(detectionRegions);
+		}
+		final List<FaceTrack> matched = new ArrayList<FaceTrack>(tracks.size());
+		for (Rect face : webcamManager.detectFaces(frame, detectionRegions)) {
+			FaceTrack best = null;
+			double bestOverlap = MINIMUM_OVERLAP;
+			for (FaceTrack track : tracks) {
+				final double overlap = RegionsOfInterest.intersectionOverUnion(track.box, face);
+				if (overlap >= bestOverlap && !matched.contains(track)) {
+					best = track;
+					bestOverlap = overlap;
+				}
+			}
+			if (best == null) {
+				best = new FaceTrack(face, new Mat());
+				tracks.add(best);
+			}
+			// A poor first image of the face may not be recognized.
+			if (best.user == null || WebcamManager.UNKNOWN_USER_NAME.equals(best.user.getUserName())) {
+				final Mat faceImage = gray.submat(face);
+				try {
+					best.user = webcamManager.recognizeFace(faceImage);
+				} finally {
+					faceImage.release();
+				}
+			}
+			best.reset(face, gray);
+			matched.add(best);
+		}
+		for (Iterator<FaceTrack> iterator = tracks.iterator(); iterator.hasNext();) {
+			final FaceTrack track = iterator.next();
+			if (!matched.contains(track) && (track.score < minimumScore || ++track.misses > maximumMisses)) {
+				track.template.release();
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * @param box
+	 *            a rectangle.
+	 * @param margin
+	 *            margin added on each side, as a ratio of the rectangle size.
+	 * @param image
+	 *            the image the rectangle is clipped to.
+	 * @return the rectangle padded.
+	 */
+	private static Rect pad(final Rect box, final double margin, final Mat image) {
+		final int x = Math.max(0, box.x - (int) (box.width * margin));
+		final int y = Math.max(0, box.y - (int) (box.height * margin));
+		final int right = Math.min(image.cols(), box.x + box.width + (int) (box.width * margin));
+		final int bottom = Math.min(image.rows(), box.y + box.height + (int) (box.height * margin));
+		return new Rect(x, y, Math.max(0, right - x), Math.max(0, bottom - y));
+	}
+
+	/**
+	 * Face followed from frame to frame.
+	 */
+	private static class FaceTrack {
+
+		/** Position of the face in the last frame. */
+		private Rect box;
+
+		/** Image of the face at its last detection, in gray. */
+		private final Mat template;
+
+		/** User predicted, at the first detection recognizing the face. */
+		private User user;
+
+		/** Matching score in the last frame. */
+		private double score = 1;
+
+		/** Number of consecutive detections the face has been missed by. */
+		private int misses;
+
+		private FaceTrack(final Rect box, final Mat template) {
+			this.box = box;
+			this.template = template;
+		}
+
+		/**
+		 * Move the track to the face detected and take its image again.
+		 *
+		 * @param face
+		 *            the face detected.
+		 * @param gray
+		 *            the frame in gray.
+		 */
+		private void reset(final Rect face, final Mat gray) {
+			box = face;
+			final Mat faceImage = gray.submat(face);
+			faceImage.copyTo(template);
+			faceImage.release();
+			score = 1;
+			misses = 0;
+		}
+	}
+
+}
@@ -0,0 +1,139 @@
+package com.dachlab.service.util;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Size;
+
+/**
+ * Frame given to a {@link ICapturedImageHandler}. The derived images are
+ * computed once per frame and shared read only with the handlers of the other
+ * captures. A handler drawing on the frame gets its own copy of the image,
+ * made the first time it is asked for in a buffer reused from one frame to
+ * the next.
+ *
+ * @author dcharles
+ */
+public class FrameContext {
+
+	/** Copy of the image the handler may modify. */
+	private final Mat image;
+
+	private CapturedFrame frame;
+
+	private boolean imageCopied;
+
+	/**
+	 * Constructor using the buffer receiving the copies of the image.
+	 *
+	 * @param image
+	 *            the buffer.
+	 */
+	FrameContext(final Mat image) {
+		this.image = image;
+	}
+
+	/**
+	 * Make the context represent a frame. The frame must be held until the
+	 * context is reset.
+	 *
+	 * @param frame
+	 *            the frame, null once handled.
+	 */
+	void reset(final CapturedFrame frame) {
+		this.frame = frame;
+		this.imageCopied = false;
+	}
+
+	/**
+	 * Get the image of the frame, shared with the other captures. Read only.
+	 *
+	 * @return the shared image.
+	 */
+	public Mat getFrameImage() {
+		return frame.getImage();
+	}
+
+	/**
+	 * Get a copy of the image the handler is free to draw on. The copy is
+	 * made the first time.
+	 *
+	 * @return the copy of the image.
+	 */
+	public Mat getImage() {
+		if (!imageCopied) {
+			frame.getImage().copyTo(image);
+			imageCopied = true;
+		}
+		return image;
+	}
+
+	/**
+	 * @return true if the handler got its own copy of the image, possibly
+	 *         drawn on.
+	 */
+	public boolean isImageCopied() {
+		return imageCopied;
+	}
+
+	/**
+	 * @return the size of the frame.
+	 */
+	public Size getSize() {
+		return frame.getImage().size();
+	}
+
+	/**
+	 * @return the sequence number of the frame.
+	 */
+	public long getSequence() {
+		return frame.getSequence();
+	}
+
+	/**
+	 * @return the capture time in milliseconds.
+	 */
+	public long getTimestamp() {
+		return frame.getTimestamp();
+	}
+
+	/**
+	 * @return the image in gray. Read only.
+	 */
+	public Mat getGray() {
+		return frame.getViews().getGray();
+	}
+
+	/**
+	 * @return the gray image with its histogram equalized. Read only.
+	 */
+	public Mat getEqualized() {
+		return frame.getViews().getEqualized();
+	}
+
+	/**
+	 * @return the gray image blurred to remove the noise. Read only.
+	 */
+	public Mat getBlurred() {
+		return frame.getViews().getBlurred();
+	}
+
+	/**
+	 * @param level
+	 *            level of the pyramid, 0 for the gray image, each level being
+	 *            half the size of the previous one.
+	 * @return the gray image downscaled. Read only.
+	 */
+	public Mat getPyramidLevel(final int level) {
+		return frame.getViews().getPyramidLevel(level);
+	}
+
+	/**
+	 * @param quality
+	 *            JPEG quality from 0 to 100.
+	 * @return the image encoded in JPEG. Read only.
+	 */
+	public MatOfByte getJpeg(final int quality) {
+		return frame.getViews().getJpeg(quality);
+	}
+
+}
@@ -0,0 +1,275 @@
+package com.dachlab.service.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.dachlab.properties.IWebcamProperties;
+
+/**
+ * Distribute the frames published by the camera session to any number of
+ * consumers. Frames are kept in a ring buffer indexed by a sequence number,
+ * each consumer reads the ring at its own pace on its own thread. The camera
+ * only waits, for a bounded time, for the consumers with the
+ * {@link FrameDropPolicy#BLOCK} policy: any other consumer lagging more than
+ * the ring size behind loses the oldest frames.
+ *
+ * @author dcharles
+ */
+@Component("frameDistributor")
+public class FrameDistributor implements IFrameListener {
+
+	/** Ring size used when not configured. */
+	private static final int DEFAULT_RING_SIZE = 8;
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private CameraSession cameraSession;
+
+	@Autowired
+	private IWebcamProperties webcamProperties;
+
+	/** Guards the ring and the cursor. */
+	private final Object lock = new Object();
+
+	private CapturedFrame[] ring;
+
+	private long[] ringSequences;
+
+	/** Sequence number of the last frame published, 0 if none. */
+	private long cursor = 0;
+
+	private int consumers = 0;
+
+	/**
+	 * True while frames are distributed. A frame published after the
+	 * distribution stopped is released instead of kept in the ring. Guarded
+	 * by the lock.
+	 */
+	private boolean distributing = false;
+
+	/** Consumers the camera waits for before overwriting a frame. */
+	private final List<WebCamCapturer> blockingConsumers = new ArrayList<WebCamCapturer>();
+
+	/**
+	 * Register a consumer, opening the camera and starting the distribution if
+	 * this is the first one.
+	 *
+	 * @return true if the frames are distributed.
+	 */
+	public synchronized boolean connect() {
+		if (!cameraSession.open()) {
+			return false;
+		}
+		if (consumers++ == 0) {
+			synchronized (lock) {
+				if (ring == null) {
+					final int ringSize = webcamProperties.getFrameRingSize() > 0 ? webcamProperties.getFrameRingSize() : DEFAULT_RING_SIZE;
+					ring = new CapturedFrame[ringSize];
+					ringSequences = new long[ringSize];
+				}
+				distributing = true;
+			}
+			cameraSession.addFrameListener(this);
+			log.debug("Frame distribution started.");
+		}
+		return true;
+	}
+
+	/**
+	 * Unregister a consumer, stopping the distribution and freeing the ring if
+	 * this was the last one. The ring is drained under the lock of the
+	 * publication, so that a frame being published meanwhile is released too.
+	 */
+	public synchronized void disconnect() {
+		if (consumers == 0 || --consumers > 0) {
+			return;
+		}
+		cameraSession.removeFrameListener(this);
+		synchronized (lock) {
+			distributing = false;
+			for (int i = 0; i < ring.length; i++) {
+				if (ring[i] != null) {
+					ring[i].release();
+					ring[i] = null;
+				}
+			}
+			lock.notifyAll();
+		}
+		log.debug("Frame distribution stopped.");
+	}
+
+	@Override
+	public void onFrame(final CapturedFrame frame) {
+		frame.retain();
+		final CapturedFrame releasedFrame;
+		synchronized (lock) {
+			final long sequence = cursor + 1;
+			if (distributing && sequence > ring.length) {
+				awaitBlockingConsumers(sequence - ring.length);
+			}
+			// The lock is released while waiting, the distribution may have
+			// stopped meanwhile: the frame is then not kept.
+			releasedFrame = distributing ? publish(frame, sequence) : frame;
+		}
+		if (releasedFrame != null) {
+			releasedFrame.release();
+		}
+	}
+
+	/**
+	 * Put a frame in the ring. Must be called while holding the lock.
+	 *
+	 * @param frame
+	 *            the frame, retained.
+	 * @param sequence
+	 *            its sequence number.
+	 * @return the frame overwritten, to be released, null if none.
+	 */
+	private CapturedFrame publish(final CapturedFrame frame, final long sequence) {
+		cursor = sequence;
+		final int index = (int) (sequence % ring.length);
+		final CapturedFrame overwrittenFrame = ring[index];
+		ring[index] = frame;
+		ringSequences[index] = sequence;
+		lock.notifyAll();
+		return overwrittenFrame;
+	}
+
+	/**
+	 * Wait for the blocking consumers to read a frame before it is
+	 * overwritten, each one for its maximum blocking time at most. Must be
+	 * called while holding the lock.
+	 *
+	 * @param overwrittenSequence
+	 *            sequence number of the frame about to be overwritten.
+	 */
+	private void awaitBlockingConsumers(final long overwrittenSequence) {
+		// The lock is released while waiting, iterate over a copy.
+		for (WebCamCapturer consumer : new ArrayList<WebCamCapturer>(blockingConsumers)) {
+			final long deadline = System.currentTimeMillis() + consumer.getMaximumBlockingTime();
+			while (consumer.getNextSequence() <= overwrittenSequence && !consumer.isTerminating()) {
+				final long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					break;
+				}
+				try {
+					lock.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Register a consumer the camera waits for.
+	 *
+	 * @param consumer
+	 *            the consumer.
+	 */
+	void addBlockingConsumer(final WebCamCapturer consumer) {
+		synchronized (lock) {
+			blockingConsumers.add(consumer);
+		}
+	}
+
+	/**
+	 * Unregister a consumer the camera waits for.
+	 *
+	 * @param consumer
+	 *            the consumer.
+	 */
+	void removeBlockingConsumer(final WebCamCapturer consumer) {
+		synchronized (lock) {
+			blockingConsumers.remove(consumer);
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Wake up the camera possibly waiting for a blocking consumer.
+	 */
+	void signalConsumed() {
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * @return the sequence number of the last frame published.
+	 */
+	public long getCursor() {
+		synchronized (lock) {
+			return cursor;
+		}
+	}
+
+	/**
+	 * @return the number of frames kept in the ring.
+	 */
+	public int getRingSize() {
+		synchronized (lock) {
+			return ring == null ? DEFAULT_RING_SIZE : ring.length;
+		}
+	}
+
+	/**
+	 * Wait until a frame more recent than the given sequence number is
+	 * published.
+	 *
+	 * @param afterSequence
+	 *            sequence number of the last frame seen by the caller.
+	 * @param timeout
+	 *            maximum time to wait in milliseconds.
+	 * @return the sequence number of the last frame published.
+	 */
+	public long awaitCursor(final long afterSequence, final long timeout) {
+		final long deadline = System.currentTimeMillis() + timeout;
+		synchronized (lock) {
+			while (cursor <= afterSequence) {
+				final long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					break;
+				}
+				try {
+					lock.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			return cursor;
+		}
+	}
+
+	/**
+	 * Acquire the frame with the given sequence number. The frame must be
+	 * released by the caller.
+	 *
+	 * @param sequence
+	 *            sequence number of the frame.
+	 * @return the frame, or null if not published yet or already overwritten.
+	 */
+	public CapturedFrame acquire(final long sequence) {
+		synchronized (lock) {
+			if (ring == null || sequence > cursor) {
+				return null;
+			}
+			final int index = (int) (sequence % ring.length);
+			final CapturedFrame frame = ring[index];
+			if (frame == null || ringSequences[index] != sequence) {
+				return null;
+			}
+			frame.retain();
+			return frame;
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.dachlab.service.util;
+
+/**
+ * Policies applied by a capture when its handler is slower than the camera.
+ * 
+ * @author dcharles
+ */
+public enum FrameDropPolicy {
+
+	/** Always handle the most recent frame, skip the frames in between. */
+	LATEST,
+
+	/**
+	 * Handle the frames in order, keeping at most a given number of pending
+	 * frames. The oldest ones are dropped beyond.
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * Handle every frame in order. The camera waits for the handler, up to a
+	 * given time in milliseconds, before overwriting a frame not handled yet.
+	 */
+	BLOCK,
+
+	/** Handle one frame every given number of frames. */
+	EVERY_NTH;
+
+	/**
+	 * Get the default parameter of the policy.
+	 * 
+	 * @param ringSize
+	 *            size of the frame ring buffer.
+	 * @return the default parameter.
+	 */
+	public int getDefaultParameter(final int ringSize) {
+		switch (this) {
+		case DROP_OLDEST:
+			return ringSize;
+		case BLOCK:
+			return 100;
+		case EVERY_NTH:
+			return 2;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Select the next frame to handle.
+	 * 
+	 * @param nextSequence
+	 *            sequence number of the next frame to read.
+	 * @param cursor
+	 *            sequence number of the latest frame published, at least
+	 *            the next frame to read.
+	 * @param parameter
+	 *            parameter of the policy.
+	 * @param ringSize
+	 *            size of the frame ring buffer.
+	 * @return the sequence number of the frame to handle, after the cursor
+	 *         if the frame is not published yet.
+	 */
+	public long selectSequence(final long nextSequence, final long cursor, final int parameter, final int ringSize) {
+		switch (this) {
+		case LATEST:
+			return cursor;
+		case DROP_OLDEST:
+			return Math.max(nextSequence, cursor - parameter + 1);
+		case EVERY_NTH:
+			final long sequence = ((nextSequence + parameter - 1) / parameter) * parameter;
+			// Never lag more than the ring behind the camera.
+			return sequence + ringSize > cursor ? sequence : ((cursor / parameter) * parameter);
+		default:
+			return nextSequence;
+		}
+	}
+
+}
@@ -0,0 +1,163 @@
+package com.dachlab.service.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Images derived from a captured frame: gray, equalized, blurred, pyramid
+ * levels and JPEG. Each view is computed the first time it is asked for and
+ * shared by all the readers of the frame, read only. The buffers belong to the
+ * frame buffer and are reused when the frame buffer is recycled, so that
+ * computing the views allocates nothing once the buffers are sized.
+ *
+ * @author dcharles
+ */
+class FrameViews {
+
+	/** Size of the blur applied to remove the noise. */
+	private static final Size BLUR_SIZE = new Size(21, 21);
+
+	private final Mat image;
+
+	private final Mat gray = new Mat();
+
+	private final Mat equalized = new Mat();
+
+	private final Mat blurred = new Mat();
+
+	/** Pyramid levels from level 1, level 0 being the gray image. */
+	private final List<Mat> pyramid = new ArrayList<Mat>();
+
+	private final MatOfByte jpeg = new MatOfByte();
+
+	private boolean grayValid;
+
+	private boolean equalizedValid;
+
+	private boolean blurredValid;
+
+	private int validPyramidLevels;
+
+	/** Quality of the JPEG computed, -1 if none. */
+	private int jpegQuality = -1;
+
+	/**
+	 * Constructor using the image of the frame.
+	 *
+	 * @param image
+	 *            the image, the views are derived from.
+	 */
+	FrameViews(final Mat image) {
+		this.image = image;
+	}
+
+	/**
+	 * @return the image in gray.
+	 */
+	synchronized Mat getGray() {
+		if (!grayValid) {
+			if (image.channels() > 1) {
+				Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
+			} else {
+				image.copyTo(gray);
+			}
+			grayValid = true;
+		}
+		return gray;
+	}
+
+	/**
+	 * @return the gray image with its histogram equalized.
+	 */
+	synchronized Mat getEqualized() {
+		if (!equalizedValid) {
+			Imgproc.equalizeHist(getGray(), equalized);
+			equalizedValid = true;
+		}
+		return equalized;
+	}
+
+	/**
+	 * @return the gray image blurred to remove the noise.
+	 */
+	synchronized Mat getBlurred() {
+		if (!blurredValid) {
+			Imgproc.GaussianBlur(getGray(), blurred, BLUR_SIZE, 0);
+			blurredValid = true;
+		}
+		return blurred;
+	}
+
+	/**
+	 * @param level
+	 *            level of the pyramid, 0 for the gray image, each level being
+	 *            half the size of the previous one.
+	 * @return the gray image downscaled.
+	 */
+	synchronized Mat getPyramidLevel(final int level) {
+		if (level == 0) {
+			return getGray();
+		}
+		while (validPyramidLevels < level) {
+			if (pyramid.size() == validPyramidLevels) {
+				pyramid.add(new Mat());
+			}
+			final Mat source = validPyramidLevels == 0 ? getGray() : pyramid.get(validPyramidLevels - 1);
+			Imgproc.pyrDown(source, pyramid.get(validPyramidLevels));
+			validPyramidLevels++;
+		}
+		return pyramid.get(level - 1);
+	}
+
+	/**
+	 * @param quality
+	 *            JPEG quality from 0 to 100.
+	 * @return the image encoded in JPEG.
+	 */
+	synchronized MatOfByte getJpeg(final int quality) {
+		if (jpegQuality != quality) {
+			final MatOfInt parameters = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, quality);
+			try {
+				Imgcodecs.imencode(EncodedFrame.JPEG, image, jpeg, parameters);
+			} finally {
+				parameters.release();
+			}
+			jpegQuality = quality;
+		}
+		return jpeg;
+	}
+
+	/**
+	 * Forget the views, the image has changed. The buffers are kept.
+	 */
+	synchronized void invalidate() {
+		grayValid = false;
+		equalizedValid = false;
+		blurredValid = false;
+		validPyramidLevels = 0;
+		jpegQuality = -1;
+	}
+
+	/**
+	 * Free the buffers.
+	 */
+	synchronized void release() {
+		invalidate();
+		gray.release();
+		equalized.release();
+		blurred.release();
+		for (Mat level : pyramid) {
+			level.release();
+		}
+		pyramid.clear();
+		jpeg.release();
+	}
+
+}
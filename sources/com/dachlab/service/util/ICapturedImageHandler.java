@@ -1,15 +1,13 @@
 package com.dachlab.service.util;
 
-import org.opencv.core.Mat;
-
 public interface ICapturedImageHandler {
 
 	/**
-	 * Do something with the image.
+	 * Do something with the captured frame.
 	 * 
-	 * @param image
-	 *            Captured image.
+	 * @param frame
+	 *            Captured frame, with its derived images.
 	 */
-	void handle(Mat image);
+	void handle(FrameContext frame);
 
 }
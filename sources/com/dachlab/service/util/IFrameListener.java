@@ -0,0 +1,14 @@
+package com.dachlab.service.util;
+
+public interface IFrameListener {
+
+	/**
+	 * Called each time a new frame is published. The frame must be retained
+	 * to be used after the method returned.
+	 * 
+	 * @param frame
+	 *            Frame published.
+	 */
+	void onFrame(CapturedFrame frame);
+
+}
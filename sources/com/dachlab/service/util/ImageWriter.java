@@ -0,0 +1,255 @@
+package com.dachlab.service.util;
+
+import java.io.File;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.dachlab.properties.IWebcamProperties;
+
+/**
+ * Asynchronous image writer. The images are copied and queued, then encoded
+ * and written by a small pool of writer threads, so that the capture never
+ * waits for the disk. The images of the frame size are copied into pooled
+ * buffers, the others, face crops for instance, into buffers of their own.
+ * The queue is bounded: the images arriving while it is full are dropped. The
+ * images queued are written before shutdown.
+ *
+ * A file queued does not exist yet when the write returns: the callers
+ * needing the file pass a {@link Listener}, or write it with
+ * {@link #writeNow(Mat, File, int)}.
+ *
+ * @author dcharles
+ */
+@Component("imageWriter")
+public class ImageWriter {
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	/** Maximum time to wait for the queued images to be written at shutdown. */
+	private static final long SHUTDOWN_TIMEOUT = 10000;
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private IWebcamProperties webcamProperties;
+
+	@Autowired
+	private MatPool matPool;
+
+	private final AtomicLong droppedImages = new AtomicLong();
+
+	private ThreadPoolExecutor writers;
+
+	/**
+	 * Listener of the result of a write.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called by the writer thread once the image is written.
+		 *
+		 * @param file
+		 *            the file written.
+		 */
+		void written(File file);
+
+		/**
+		 * Called if the image could not be written or has been dropped.
+		 *
+		 * @param file
+		 *            the file not written.
+		 */
+		void failed(File file);
+	}
+
+	/**
+	 * Start the writer threads.
+	 */
+	@PostConstruct
+	public void initialize() {
+		final int threads = Math.max(1, webcamProperties.getImageWriterThreads());
+		final AtomicInteger threadNumber = new AtomicInteger();
+		writers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(Math.max(1, webcamProperties.getImageWriterQueueSize())),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						final Thread thread = new Thread(runnable, "image-writer-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * Write the images queued and stop the writer threads.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		writers.shutdown();
+		try {
+			if (!writers.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				log.warn(writers.getQueue().size() + " images not written at shutdown.");
+			}
+		} catch (InterruptedException e) {
+			log.error("Error while waiting for the images to be written.", e);
+		}
+	}
+
+	/**
+	 * Queue an image to be written. The image is copied, the caller keeps its
+	 * ownership. Never blocks.
+	 *
+	 * @param image
+	 *            the image.
+	 * @param file
+	 *            the file to write, its extension giving the format.
+	 * @param quality
+	 *            quality from 0 to 100.
+	 * @param listener
+	 *            notified of the result, null if none.
+	 * @return true if queued, false if dropped.
+	 */
+	public boolean write(final Mat image, final File file, final int quality, final Listener listener) {
+		final boolean pooled = image.rows() == webcamProperties.getHeight() && image.cols() == webcamProperties.getWidth();
+		final Mat copy = pooled ? matPool.copyOf(image) : image.clone();
+		if (copy == null) {
+			return dropped(file, listener);
+		}
+		try {
+			writers.execute(new Runnable() {
+				@Override
+				public void run() {
+					final boolean written;
+					try {
+						written = writeNow(copy, file, quality);
+					} finally {
+						release(copy, pooled);
+					}
+					if (listener != null) {
+						if (written) {
+							listener.written(file);
+						} else {
+							listener.failed(file);
+						}
+					}
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			release(copy, pooled);
+			return dropped(file, listener);
+		}
+	}
+
+	/**
+	 * Give a copy back to the pool, or release it if not pooled.
+	 *
+	 * @param copy
+	 *            the copy.
+	 * @param pooled
+	 *            true if obtained from the pool.
+	 */
+	private void release(final Mat copy, final boolean pooled) {
+		if (pooled) {
+			matPool.release(copy);
+		} else {
+			copy.release();
+		}
+	}
+
+	/**
+	 * Count an image dropped because the writers are late.
+	 *
+	 * @param file
+	 *            the file not written.
+	 * @param listener
+	 *            notified of the failure, null if none.
+	 * @return false.
+	 */
+	private boolean dropped(final File file, final Listener listener) {
+		if (droppedImages.incrementAndGet() % 100 == 1) {
+			log.warn("The image writers are late, " + droppedImages.get() + " images dropped so far.");
+		}
+		if (listener != null) {
+			listener.failed(file);
+		}
+		return false;
+	}
+
+	/**
+	 * Queue an image to be written in a folder, under a new name.
+	 *
+	 * @param image
+	 *            the image. The caller keeps its ownership.
+	 * @param path
+	 *            the folder, ending with a separator.
+	 * @param format
+	 *            the format, png or jpg.
+	 * @param quality
+	 *            quality from 0 to 100.
+	 * @param listener
+	 *            notified once the file is written, null if none.
+	 * @return the name of the file to be written, null if dropped. The file
+	 *         does not exist yet.
+	 */
+	public String write(final Mat image, final String path, final String format, final int quality, final Listener listener) {
+		final File file = new File(path + UUID.randomUUID() + EncodedFrame.extensionOf(format));
+		return write(image, file, quality, listener) ? file.getPath() : null;
+	}
+
+	/**
+	 * @return the number of images dropped because the queue was full.
+	 */
+	public long getDroppedImages() {
+		return droppedImages.get();
+	}
+
+	/**
+	 * Encode and write an image in the calling thread, for the callers needing
+	 * the file as soon as this returns.
+	 *
+	 * @param image
+	 *            the image. The caller keeps its ownership.
+	 * @param file
+	 *            the file to write, its extension giving the format.
+	 * @param quality
+	 *            quality from 0 to 100.
+	 * @return true if written.
+	 */
+	public boolean writeNow(final Mat image, final File file, final int quality) {
+		final String name = file.getName();
+		final MatOfInt parameters = EncodedFrame.encodingParameters(name.substring(Math.max(0, name.lastIndexOf('.'))), quality);
+		try {
+			if (Imgcodecs.imwrite(file.getAbsolutePath(), image, parameters)) {
+				return true;
+			}
+			log.error("Unable to save image " + file + ".");
+		} catch (Exception e) {
+			log.error("Unable to save image " + file + ".", e);
+		} finally {
+			parameters.release();
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,195 @@
+package com.dachlab.service.util;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.dachlab.properties.IWebcamProperties;
+
+/**
+ * Arena of native image buffers, keyed by size and type. The buffers of a
+ * frame format are allocated as needed, up to a fixed number, then only
+ * recycled: no native memory is allocated for each frame, nor freed whenever
+ * the garbage collector finalizes the Java wrappers. The arena of a format is
+ * bounded, a request finding all its buffers in use gets none, the caller
+ * dropping its frame as when its queue is full. The capacity must thus cover
+ * the images queued by the image writer.
+ *
+ * Only a few formats are kept: when a new one is requested, the arena least
+ * recently used with no buffer in use is freed to make room. A buffer not
+ * obtained from the pool is released when given back.
+ *
+ * @author dcharles
+ */
+@Component("matPool")
+public class MatPool {
+
+	/** Maximum number of buffers per format when not configured. */
+	private static final int DEFAULT_CAPACITY = 40;
+
+	/** Maximum number of formats kept at the same time. */
+	private static final int MAXIMUM_FORMATS = 4;
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private IWebcamProperties webcamProperties;
+
+	/** Arenas by format, the least recently used first. */
+	private final Map<String, Arena> arenas = new LinkedHashMap<String, Arena>(16, 0.75f, true);
+
+	private int allocatedBuffers = 0;
+
+	private int exhaustions = 0;
+
+	/**
+	 * Get a buffer of the given size and type. Its content is undefined.
+	 *
+	 * @param size
+	 *            size of the image.
+	 * @param type
+	 *            type of the image.
+	 * @return the buffer, to be given back with {@link #release(Mat)}, or
+	 *         null if all the buffers of the format are in use.
+	 */
+	public synchronized Mat acquire(final Size size, final int type) {
+		final int rows = (int) size.height;
+		final int cols = (int) size.width;
+		final String key = key(rows, cols, type);
+		Arena arena = arenas.get(key);
+		if (arena == null && (arenas.size() < MAXIMUM_FORMATS || evictUnusedArena())) {
+			arena = new Arena();
+			arenas.put(key, arena);
+		}
+		Mat buffer = null;
+		if (arena != null) {
+			buffer = arena.free.poll();
+			if (buffer == null && arena.buffers.size() < getCapacity()) {
+				buffer = new Mat(rows, cols, type);
+				arena.buffers.add(buffer);
+				allocatedBuffers++;
+			}
+		}
+		if (buffer == null && ++exhaustions % 100 == 1) {
+			log.warn("All the buffers of the pool are in use, " + exhaustions + " requests denied so far.");
+		}
+		return buffer;
+	}
+
+	/**
+	 * Get a copy of the image in a pooled buffer.
+	 *
+	 * @param image
+	 *            image to copy.
+	 * @return the copy, to be given back with {@link #release(Mat)}, or null
+	 *         if all the buffers of the format are in use.
+	 */
+	public Mat copyOf(final Mat image) {
+		final Mat buffer = acquire(image.size(), image.type());
+		if (buffer != null) {
+			image.copyTo(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Give a buffer back to the pool. A buffer not obtained from the pool is
+	 * released.
+	 *
+	 * @param buffer
+	 *            buffer obtained from the pool.
+	 */
+	public void release(final Mat buffer) {
+		if (buffer == null) {
+			return;
+		}
+		synchronized (this) {
+			final Arena arena = arenas.get(key(buffer.rows(), buffer.cols(), buffer.type()));
+			if (arena != null && arena.buffers.contains(buffer)) {
+				arena.free.push(buffer);
+				return;
+			}
+		}
+		log.warn("Buffer given back to the pool not obtained from it, released.");
+		buffer.release();
+	}
+
+	/**
+	 * @return the number of buffers currently allocated by the pool.
+	 */
+	public synchronized int getAllocatedBuffers() {
+		return allocatedBuffers;
+	}
+
+	/**
+	 * Free the arena least recently used whose buffers are all free.
+	 *
+	 * @return true if an arena has been freed.
+	 */
+	private boolean evictUnusedArena() {
+		final Iterator<Map.Entry<String, Arena>> iterator = arenas.entrySet().iterator();
+		while (iterator.hasNext()) {
+			final Map.Entry<String, Arena> entry = iterator.next();
+			final Arena arena = entry.getValue();
+			if (arena.free.size() == arena.buffers.size()) {
+				log.debug("Freeing the " + arena.buffers.size() + " buffers of " + entry.getKey() + ".");
+				for (Mat buffer : arena.buffers) {
+					buffer.release();
+				}
+				allocatedBuffers -= arena.buffers.size();
+				iterator.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the maximum number of buffers per format.
+	 */
+	private int getCapacity() {
+		if (webcamProperties.getMatPoolCapacity() > 0) {
+			return webcamProperties.getMatPoolCapacity();
+		}
+		return DEFAULT_CAPACITY;
+	}
+
+	/**
+	 * Build the key of a buffer.
+	 *
+	 * @param rows
+	 *            number of rows.
+	 * @param cols
+	 *            number of columns.
+	 * @param type
+	 *            type of the image.
+	 * @return the key.
+	 */
+	private static String key(final int rows, final int cols, final int type) {
+		return cols + "x" + rows + "/" + type;
+	}
+
+	/**
+	 * Buffers of a format.
+	 */
+	private static class Arena {
+
+		/** Buffers allocated, free or in use. */
+		private final Set<Mat> buffers = Collections.newSetFromMap(new IdentityHashMap<Mat, Boolean>());
+
+		private final Deque<Mat> free = new ArrayDeque<Mat>();
+	}
+
+}
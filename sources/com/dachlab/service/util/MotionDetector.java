@@ -0,0 +1,320 @@
+package com.dachlab.service.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Motion detection against a background model. The background is a running
+ * average of the past frames, gray and blurred, updated with each frame so
+ * that it follows the lighting changes. Each frame is converted and blurred
+ * once, into buffers reused from one frame to the next. Not thread safe.
+ *
+ * The background is kept at a reduced size: a frame is first compared to it
+ * downscaled, and only counting the changed pixels. The changed regions are
+ * looked for at full size only if enough pixels have changed, so an idle
+ * camera costs little. The bounding rectangles of the changed regions found
+ * are kept until the next frame.
+ *
+ * @author dcharles
+ */
+public class MotionDetector {
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	/** Size of the blur applied at full size to remove the noise. */
+	private static final int BLUR_SIZE = 21;
+
+	/** Weight of a frame in the background average. */
+	private final double learningRate;
+
+	/** Minimum difference of a pixel with the background to be changed. */
+	private final double threshold;
+
+	/** Minimum area of a changed region to be a motion, in pixels. */
+	private final double minimumArea;
+
+	/** Width of the background, 0 to keep the frames size. */
+	private final int scaledWidth;
+
+	/** Minimum ratio of changed pixels to look for the changed regions. */
+	private final double changedPixelRatio;
+
+	private final Mat scaled = new Mat();
+
+	private final Mat scaledGray = new Mat();
+
+	private final Mat scaledBlurred = new Mat();
+
+	/** Background average, in floating point. */
+	private final Mat background = new Mat();
+
+	private final Mat background8 = new Mat();
+
+	private final Mat difference = new Mat();
+
+	private final Mat gray = new Mat();
+
+	private final Mat blurred = new Mat();
+
+	private final Mat fullBackground = new Mat();
+
+	private final Mat fullDifference = new Mat();
+
+	private final Mat hierarchy = new Mat();
+
+	private final List<MatOfPoint> contours = new ArrayList<MatOfPoint>();
+
+	/** Changed regions of the last frame, in full size coordinates. */
+	private final List<Rect> motionRegions = new ArrayList<Rect>();
+
+	private boolean initialized = false;
+
+	/** Frame size the scaled sizes have been computed for. */
+	private Size frameSize;
+
+	private Size scaledSize;
+
+	private Size scaledBlurSize;
+
+	private boolean downscaled;
+
+	/** Pyramid level the downscaled frame is made from. */
+	private int pyramidLevel;
+
+	/**
+	 * Constructor using the detection parameters.
+	 *
+	 * @param learningRate
+	 *            weight of a frame in the background average, between 0 and
+	 *            1. The higher the faster the background follows the changes.
+	 * @param threshold
+	 *            minimum difference of a pixel with the background to be
+	 *            changed, from 0 to 255.
+	 * @param minimumArea
+	 *            minimum area of a changed region to be a motion, in pixels
+	 *            of the full size frame.
+	 * @param scaledWidth
+	 *            width the frames are downscaled to before being compared to
+	 *            the background, 0 to keep the frames size.
+	 * @param changedPixelRatio
+	 *            minimum ratio of changed pixels in the downscaled frame to
+	 *            look for the changed regions.
+	 */
+	public MotionDetector(final double learningRate, final double threshold, final double minimumArea, final int scaledWidth, final double changedPixelRatio) {
+		this.learningRate = learningRate;
+		this.threshold = threshold;
+		this.minimumArea = minimumArea;
+		this.scaledWidth = scaledWidth;
+		this.changedPixelRatio = changedPixelRatio;
+	}
+
+	/**
+	 * Compare a frame to the background, then add it to the background. The
+	 * first frame only initializes the background.
+	 *
+	 * @param frame
+	 *            the frame, color or gray. Not modified.
+	 * @return true if motion detected.
+	 */
+	public boolean detect(final Mat frame) {
+		motionRegions.clear();
+		final boolean sizeChanged = updateSizes(frame.size());
+		final Mat source;
+		if (downscaled) {
+			Imgproc.resize(frame, scaled, scaledSize, 0, 0, Imgproc.INTER_AREA);
+			source = scaled;
+		} else {
+			source = frame;
+		}
+		preprocess(source, scaledGray, scaledBlurred, scaledBlurSize);
+		if (!compareToBackground(scaledBlurred, sizeChanged)) {
+			return false;
+		}
+		if (!downscaled) {
+			return hasMotion(difference);
+		}
+		preprocess(frame, gray, blurred, new Size(BLUR_SIZE, BLUR_SIZE));
+		return confirm(blurred);
+	}
+
+	/**
+	 * Compare a captured frame to the background, then add it to the
+	 * background, using the gray images shared with the other handlers of the
+	 * frame.
+	 *
+	 * @param frame
+	 *            the frame.
+	 * @return true if motion detected.
+	 */
+	public boolean detect(final FrameContext frame) {
+		motionRegions.clear();
+		final boolean sizeChanged = updateSizes(frame.getSize());
+		if (!downscaled) {
+			return compareToBackground(frame.getBlurred(), sizeChanged) && hasMotion(difference);
+		}
+		final Mat level = frame.getPyramidLevel(pyramidLevel);
+		final Mat source;
+		if (level.cols() == (int) scaledSize.width && level.rows() == (int) scaledSize.height) {
+			source = level;
+		} else {
+			Imgproc.resize(level, scaled, scaledSize, 0, 0, Imgproc.INTER_AREA);
+			source = scaled;
+		}
+		Imgproc.GaussianBlur(source, scaledBlurred, scaledBlurSize, 0);
+		return compareToBackground(scaledBlurred, sizeChanged) && confirm(frame.getBlurred());
+	}
+
+	/**
+	 * Compare a blurred gray frame to the background and add it to the
+	 * background. The thresholded difference is left in {@link #difference}.
+	 *
+	 * @param blurredFrame
+	 *            the frame, at the size of the background.
+	 * @param sizeChanged
+	 *            true if the frames size has changed.
+	 * @return true if enough pixels have changed.
+	 */
+	private boolean compareToBackground(final Mat blurredFrame, final boolean sizeChanged) {
+		if (!initialized || sizeChanged) {
+			blurredFrame.convertTo(background, CvType.CV_32F);
+			initialized = true;
+			return false;
+		}
+		Core.convertScaleAbs(background, background8);
+		Core.absdiff(blurredFrame, background8, difference);
+		Imgproc.threshold(difference, difference, threshold, 255, Imgproc.THRESH_BINARY);
+		Imgproc.accumulateWeighted(blurredFrame, background, learningRate);
+		return Core.countNonZero(difference) >= changedPixelRatio * difference.total();
+	}
+
+	/**
+	 * Look for the changed regions at full size, against the background
+	 * before the frame.
+	 *
+	 * @param blurredFrame
+	 *            the frame in gray, blurred, at full size.
+	 * @return true if motion detected.
+	 */
+	private boolean confirm(final Mat blurredFrame) {
+		Imgproc.resize(background8, fullBackground, frameSize, 0, 0, Imgproc.INTER_LINEAR);
+		Core.absdiff(blurredFrame, fullBackground, fullDifference);
+		Imgproc.threshold(fullDifference, fullDifference, threshold, 255, Imgproc.THRESH_BINARY);
+		return hasMotion(fullDifference);
+	}
+
+	/**
+	 * @return the bounding rectangles of the changed regions of the last
+	 *         frame, empty if no motion detected.
+	 */
+	public List<Rect> getMotionRegions() {
+		return motionRegions;
+	}
+
+	/**
+	 * Forget the background, the next frame initializes it again.
+	 */
+	public void reset() {
+		initialized = false;
+	}
+
+	/**
+	 * Free the buffers.
+	 */
+	public void release() {
+		scaled.release();
+		scaledGray.release();
+		scaledBlurred.release();
+		background.release();
+		background8.release();
+		difference.release();
+		gray.release();
+		blurred.release();
+		fullBackground.release();
+		fullDifference.release();
+		hierarchy.release();
+		initialized = false;
+	}
+
+	/**
+	 * Compute the downscaled sizes for a frame size.
+	 *
+	 * @param size
+	 *            size of the frame.
+	 * @return true if the frame size has changed.
+	 */
+	private boolean updateSizes(final Size size) {
+		if (frameSize != null && frameSize.width == size.width && frameSize.height == size.height) {
+			return false;
+		}
+		frameSize = size;
+		downscaled = scaledWidth > 0 && scaledWidth < size.width;
+		if (downscaled) {
+			final double scale = scaledWidth / size.width;
+			scaledSize = new Size(scaledWidth, Math.max(1, Math.round(size.height * scale)));
+			// Keep the blur in proportion, with an odd size.
+			final int blurSize = Math.max(3, (int) Math.round(BLUR_SIZE * scale) | 1);
+			scaledBlurSize = new Size(blurSize, blurSize);
+			// Smallest pyramid level still larger than the downscaled size.
+			pyramidLevel = 0;
+			for (int width = (int) size.width; (width + 1) / 2 >= scaledWidth; width = (width + 1) / 2) {
+				pyramidLevel++;
+			}
+		} else {
+			scaledSize = size;
+			scaledBlurSize = new Size(BLUR_SIZE, BLUR_SIZE);
+		}
+		return true;
+	}
+
+	/**
+	 * Convert an image to gray and blur it.
+	 *
+	 * @param image
+	 *            the image.
+	 * @param grayImage
+	 *            buffer for the gray image.
+	 * @param blurredImage
+	 *            buffer for the result.
+	 * @param blurSize
+	 *            size of the blur.
+	 */
+	private static void preprocess(final Mat image, final Mat grayImage, final Mat blurredImage, final Size blurSize) {
+		if (image.channels() > 1) {
+			Imgproc.cvtColor(image, grayImage, Imgproc.COLOR_BGR2GRAY);
+			Imgproc.GaussianBlur(grayImage, blurredImage, blurSize, 0);
+		} else {
+			Imgproc.GaussianBlur(image, blurredImage, blurSize, 0);
+		}
+	}
+
+	/**
+	 * Look for the changed regions large enough in a thresholded difference.
+	 * The difference is modified.
+	 *
+	 * @param thresholdedDifference
+	 *            the difference.
+	 * @return true if found.
+	 */
+	private boolean hasMotion(final Mat thresholdedDifference) {
+		Imgproc.findContours(thresholdedDifference, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+		for (MatOfPoint contour : contours) {
+			if (Imgproc.contourArea(contour) > minimumArea) {
+				motionRegions.add(Imgproc.boundingRect(contour));
+			}
+			contour.release();
+		}
+		contours.clear();
+		return !motionRegions.isEmpty();
+	}
+
+}
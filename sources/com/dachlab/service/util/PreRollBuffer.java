@@ -0,0 +1,154 @@
+package com.dachlab.service.util;
+
+/**
+ * Ring buffer of the last encoded frames, kept for a limited time. The frames
+ * are stored one after the other in a byte arena allocated once, the oldest
+ * frames are overwritten when the arena or the index is full, so the memory
+ * used does not depend on how long frames are buffered. Not thread safe.
+ *
+ * @author dcharles
+ */
+public class PreRollBuffer {
+
+	private final byte[] arena;
+
+	private final int[] offsets;
+
+	private final int[] lengths;
+
+	private final long[] timestamps;
+
+	/** How long frames are kept, in ms. */
+	private final long duration;
+
+	/** Index of the oldest frame. */
+	private int first = 0;
+
+	private int count = 0;
+
+	/** Arena offset following the newest frame. */
+	private int writeOffset = 0;
+
+	/**
+	 * Constructor using the capacities.
+	 *
+	 * @param arenaSize
+	 *            size of the arena in bytes.
+	 * @param maximumFrames
+	 *            maximum number of frames kept.
+	 * @param duration
+	 *            how long frames are kept, in ms.
+	 */
+	public PreRollBuffer(final int arenaSize, final int maximumFrames, final long duration) {
+		this.arena = new byte[arenaSize];
+		this.offsets = new int[maximumFrames];
+		this.lengths = new int[maximumFrames];
+		this.timestamps = new long[maximumFrames];
+		this.duration = duration;
+	}
+
+	/**
+	 * Add an encoded frame, removing the frames too old and the oldest frames
+	 * needed to make room.
+	 *
+	 * @param data
+	 *            the encoded frame, from index 0.
+	 * @param length
+	 *            length of the encoded frame.
+	 * @param timestamp
+	 *            time the frame has been captured.
+	 * @return false if the frame is larger than the arena.
+	 */
+	public boolean add(final byte[] data, final int length, final long timestamp) {
+		if (length > arena.length) {
+			return false;
+		}
+		while (count > 0 && timestamps[first] < timestamp - duration) {
+			removeFirst();
+		}
+		if (count == offsets.length) {
+			removeFirst();
+		}
+		int offset = writeOffset;
+		if (offset + length > arena.length) {
+			// Wrap around: the frames between the write offset and the end
+			// of the arena are the oldest ones.
+			while (count > 0 && offsets[first] >= writeOffset) {
+				removeFirst();
+			}
+			offset = 0;
+		}
+		while (count > 0 && offsets[first] < offset + length && offsets[first] + lengths[first] > offset) {
+			removeFirst();
+		}
+		System.arraycopy(data, 0, arena, offset, length);
+		final int index = (first + count) % offsets.length;
+		offsets[index] = offset;
+		lengths[index] = length;
+		timestamps[index] = timestamp;
+		count++;
+		writeOffset = offset + length;
+		return true;
+	}
+
+	/**
+	 * @return the number of frames kept.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return true if no frame is kept.
+	 */
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * @param i
+	 *            index of the frame, 0 for the oldest.
+	 * @return the length of the encoded frame.
+	 */
+	public int getLength(final int i) {
+		return lengths[(first + i) % offsets.length];
+	}
+
+	/**
+	 * Copy an encoded frame.
+	 *
+	 * @param i
+	 *            index of the frame, 0 for the oldest.
+	 * @param target
+	 *            array receiving the frame from index 0, at least
+	 *            {@link #getLength(int)} long.
+	 * @return the length of the encoded frame.
+	 */
+	public int get(final int i, final byte[] target) {
+		final int index = (first + i) % offsets.length;
+		System.arraycopy(arena, offsets[index], target, 0, lengths[index]);
+		return lengths[index];
+	}
+
+	/**
+	 * Remove all the frames.
+	 */
+	public void clear() {
+		first = 0;
+		count = 0;
+		writeOffset = 0;
+	}
+
+	/**
+	 * Remove the oldest frame.
+	 */
+	private void removeFirst() {
+		first = (first + 1) % offsets.length;
+		count--;
+		if (count == 0) {
+			first = 0;
+			writeOffset = 0;
+		}
+	}
+
+}
@@ -0,0 +1,141 @@
+package com.dachlab.service.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+/**
+ * Regions of a frame worth scanning for objects, built from the regions where
+ * motion has been detected. The regions are padded, so that an object only
+ * partly moving is scanned whole, and the overlapping regions are merged, so
+ * that no pixel is scanned twice.
+ *
+ * @author dcharles
+ */
+public final class RegionsOfInterest {
+
+	private RegionsOfInterest() {
+	}
+
+	/**
+	 * Pad, clip and merge regions.
+	 *
+	 * @param regions
+	 *            the regions.
+	 * @param padding
+	 *            padding added on each side, as a ratio of the region size.
+	 * @param minimumSize
+	 *            minimum size of a region once padded, typically the minimum
+	 *            size of the objects looked for.
+	 * @param frameSize
+	 *            size of the frame the regions are clipped to.
+	 * @return the regions of interest, not overlapping.
+	 */
+	public static List<Rect> build(final List<Rect> regions, final double padding, final Size minimumSize, final Size frameSize) {
+		final int frameWidth = (int) frameSize.width;
+		final int frameHeight = (int) frameSize.height;
+		final List<Rect> regionsOfInterest = new ArrayList<Rect>(regions.size());
+		for (Rect region : regions) {
+			final int width = Math.max(region.width + 2 * (int) (region.width * padding), (int) minimumSize.width);
+			final int height = Math.max(region.height + 2 * (int) (region.height * padding), (int) minimumSize.height);
+			final int x = Math.max(0, region.x + region.width / 2 - width / 2);
+			final int y = Math.max(0, region.y + region.height / 2 - height / 2);
+			final Rect regionOfInterest = new Rect(x, y, Math.min(width, frameWidth - x), Math.min(height, frameHeight - y));
+			if (regionOfInterest.width > 0 && regionOfInterest.height > 0) {
+				regionsOfInterest.add(regionOfInterest);
+			}
+		}
+		return merge(regionsOfInterest);
+	}
+
+	/**
+	 * Merge the overlapping regions into their bounding rectangle, until no
+	 * region overlaps another one.
+	 *
+	 * @param regions
+	 *            the regions, modified.
+	 * @return the regions merged.
+	 */
+	public static List<Rect> merge(final List<Rect> regions) {
+		boolean merged = true;
+		while (merged) {
+			merged = false;
+			for (int i = 0; i < regions.size() && !merged; i++) {
+				for (int j = i + 1; j < regions.size() && !merged; j++) {
+					if (overlap(regions.get(i), regions.get(j))) {
+						regions.set(i, union(regions.get(i), regions.get(j)));
+						regions.remove(j);
+						merged = true;
+					}
+				}
+			}
+		}
+		return regions;
+	}
+
+	/**
+	 * @param region1
+	 *            a region.
+	 * @param region2
+	 *            another region.
+	 * @return true if the regions overlap.
+	 */
+	public static boolean overlap(final Rect region1, final Rect region2) {
+		return region1.x < region2.x + region2.width && region2.x < region1.x + region1.width && region1.y < region2.y + region2.height && region2.y < region1.y + region1.height;
+	}
+
+	/**
+	 * @param region1
+	 *            a region.
+	 * @param region2
+	 *            another region.
+	 * @return the bounding rectangle of both regions.
+	 */
+	public static Rect union(final Rect region1, final Rect region2) {
+		final int x = Math.min(region1.x, region2.x);
+		final int y = Math.min(region1.y, region2.y);
+		return new Rect(x, y, Math.max(region1.x + region1.width, region2.x + region2.width) - x, Math.max(region1.y + region1.height, region2.y + region2.height) - y);
+	}
+
+	/**
+	 * @param region1
+	 *            a region.
+	 * @param region2
+	 *            another region.
+	 * @return the area of the intersection of the regions over the area of
+	 *         their union, from 0 to 1.
+	 */
+	public static double intersectionOverUnion(final Rect region1, final Rect region2) {
+		final double intersection = intersection(region1, region2);
+		return intersection == 0 ? 0 : intersection / ((double) region1.width * region1.height + (double) region2.width * region2.height - intersection);
+	}
+
+	/**
+	 * @param region1
+	 *            a region.
+	 * @param region2
+	 *            another region.
+	 * @return the area of the intersection of the regions, in pixels.
+	 */
+	public static double intersection(final Rect region1, final Rect region2) {
+		final int width = Math.min(region1.x + region1.width, region2.x + region2.width) - Math.max(region1.x, region2.x);
+		final int height = Math.min(region1.y + region1.height, region2.y + region2.height) - Math.max(region1.y, region2.y);
+		return width <= 0 || height <= 0 ? 0 : (double) width * height;
+	}
+
+	/**
+	 * @param regions
+	 *            the regions.
+	 * @return the total area of the regions, in pixels.
+	 */
+	public static long area(final List<Rect> regions) {
+		long area = 0;
+		for (Rect region : regions) {
+			area += (long) region.width * region.height;
+		}
+		return area;
+	}
+
+}
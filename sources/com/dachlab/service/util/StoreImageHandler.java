@@ -3,17 +3,13 @@ package com.dachlab.service.util;
 import java.util.Date;
 
 import org.apache.commons.lang3.time.DateUtils;
-import org.opencv.core.Mat;
 
 public class StoreImageHandler implements ICapturedImageHandler {
 
 	private WebcamManager webcamManager;
 
-	/** Background image used to detect motion. */
-	private Mat motionDetectionBackgroundFrame;
-
-	/** Last update date of the background image for motion detection. */
-	private Date motionDetectionBackgroundFrameLastUpdate = null;
+	/** Motion detection against the background model. */
+	private final MotionDetector motionDetector;
 
 	/** Last update date of the background image for motion detection. */
 	private Date lastMmotionDetectionDate = null;
@@ -26,34 +22,24 @@ public class StoreImageHandler implements ICapturedImageHandler {
 	 */
 	public StoreImageHandler(final WebcamManager webcamManager) {
 		this.webcamManager = webcamManager;
+		this.motionDetector = webcamManager.createMotionDetector();
 	}
 
 	@Override
-	public void handle(final Mat image) {
-		Mat background = getMotionDetectionBackgroundFrame(image);
+	public void handle(final FrameContext frame) {
+		// Keep the background model up to date, even while recording.
+		final boolean motionDetected = motionDetector.detect(frame);
+		// Nothing is drawn, the shared image is recorded as is.
 		if (lastMmotionDetectionDate != null && System.currentTimeMillis() < DateUtils.addSeconds(lastMmotionDetectionDate, 2).getTime()) {
-			webcamManager.addCapturedFrame(image);
+			webcamManager.addCapturedFrame(frame);
 		} else {
 			lastMmotionDetectionDate = null;
-			if (webcamManager.detectMotion(background, image)) {
-				webcamManager.addCapturedFrame(image);
+			if (motionDetected) {
+				webcamManager.addCapturedFrame(frame);
 				lastMmotionDetectionDate = new Date();
+			} else {
+				webcamManager.addPreRollFrame(frame);
 			}
 		}
 	}
-
-	/**
-	 * Get the background image for motion detection. Get a new background image
-	 * every 60 seconds if requested.
-	 * 
-	 * @return The background image for motion detection.
-	 */
-	private Mat getMotionDetectionBackgroundFrame(final Mat image) {
-		if (motionDetectionBackgroundFrameLastUpdate == null || System.currentTimeMillis() > DateUtils.addSeconds(motionDetectionBackgroundFrameLastUpdate, 60).getTime() && !webcamManager
-				.detectMotion(motionDetectionBackgroundFrame, image)) {
-			motionDetectionBackgroundFrame = image.clone();
-			motionDetectionBackgroundFrameLastUpdate = new Date();
-		}
-		return motionDetectionBackgroundFrame;
-	}
 }
@@ -0,0 +1,214 @@
+package com.dachlab.service.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.objdetect.CascadeClassifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.dachlab.properties.IWebcamProperties;
+
+/**
+ * Parallel classifier scan of large images. The scales are split in two: the
+ * objects smaller than the tile overlap are looked for in overlapping tiles,
+ * which entirely contain any such object, and the larger objects in the whole
+ * image, where only the few large scales are scanned. The tiles and the whole
+ * image are scanned at the same time on a fork-join pool, each worker thread
+ * with its own classifier, and the objects found twice where the tiles
+ * overlap are merged by non-maximum suppression.
+ *
+ * @author dcharles
+ */
+@Component("tiledDetector")
+public class TiledDetector {
+
+	/** Minimum overlap of two objects found to be the same object. */
+	private static final double SUPPRESSION_OVERLAP = 0.3;
+
+	/** Minimum part of an object inside a larger one to be the same object. */
+	private static final double SUPPRESSION_CONTAINMENT = 0.7;
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private IWebcamProperties webcamProperties;
+
+	@Autowired
+	private CascadeClassifierRegistry cascadeClassifierRegistry;
+
+	private ForkJoinPool pool;
+
+	/**
+	 * Start the pool of detection threads.
+	 */
+	@PostConstruct
+	public void initialize() {
+		final int parallelism = webcamProperties.getDetectionParallelism() > 0 ? webcamProperties.getDetectionParallelism() : Runtime.getRuntime().availableProcessors();
+		pool = new ForkJoinPool(parallelism);
+		log.info("Parallel detection uses " + parallelism + " threads, tiles of " + getTileSize() + " pixels overlapping by " + webcamProperties.getDetectionTileOverlap() + " pixels.");
+	}
+
+	/**
+	 * Stop the pool of detection threads.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * @param image
+	 *            the image to scan.
+	 * @return true if the image is large enough to be split in tiles.
+	 */
+	public boolean isTiled(final Mat image) {
+		final int tileSize = getTileSize();
+		return tileSize > 0 && (image.cols() > tileSize || image.rows() > tileSize);
+	}
+
+	/**
+	 * Scan an image in parallel. Blocks until all the tiles are scanned.
+	 *
+	 * @param image
+	 *            the image to scan. Not modified.
+	 * @param role
+	 *            the role of the classifier, face or body.
+	 * @param classifierName
+	 *            the classifier file path.
+	 * @param parameters
+	 *            the scan parameters.
+	 * @return the objects found.
+	 * @throws Exception
+	 *             if a scan failed.
+	 */
+	public List<Rect> detect(final Mat image, final String role, final String classifierName, final DetectionParameters parameters) throws Exception {
+		final int tileSize = getTileSize();
+		final int overlap = Math.min(webcamProperties.getDetectionTileOverlap(), tileSize / 2);
+		final Size minSize = parameters.getMinSize();
+		final Size maxSize = parameters.getMaxSize();
+		final boolean bounded = maxSize.width > 0 && maxSize.height > 0;
+		final List<Callable<List<Rect>>> scans = new ArrayList<Callable<List<Rect>>>();
+		if (minSize.width < overlap && minSize.height < overlap) {
+			final DetectionParameters tileParameters = parameters.withSizes(minSize, bounded ? new Size(Math.min(overlap, maxSize.width), Math.min(overlap, maxSize.height)) : new Size(overlap, overlap));
+			final int step = tileSize - overlap;
+			for (int y = 0; y < image.rows(); y += step) {
+				for (int x = 0; x < image.cols(); x += step) {
+					scans.add(scan(image, new Rect(x, y, Math.min(tileSize, image.cols() - x), Math.min(tileSize, image.rows() - y)), role, classifierName, tileParameters));
+					if (x + tileSize >= image.cols()) {
+						break;
+					}
+				}
+				if (y + tileSize >= image.rows()) {
+					break;
+				}
+			}
+		}
+		if (!bounded || maxSize.width > overlap || maxSize.height > overlap) {
+			final DetectionParameters wholeParameters = parameters.withSizes(new Size(Math.max(overlap, minSize.width), Math.max(overlap, minSize.height)), maxSize);
+			scans.add(scan(image, new Rect(0, 0, image.cols(), image.rows()), role, classifierName, wholeParameters));
+		}
+		final List<Rect> objects = new ArrayList<Rect>();
+		for (Future<List<Rect>> result : pool.invokeAll(scans)) {
+			try {
+				objects.addAll(result.get());
+			} catch (ExecutionException e) {
+				throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+			}
+		}
+		return suppress(objects);
+	}
+
+	/**
+	 * Create the scan of a part of an image.
+	 *
+	 * @param image
+	 *            the image.
+	 * @param tile
+	 *            the part of the image to scan.
+	 * @param role
+	 *            the role of the classifier.
+	 * @param classifierName
+	 *            the classifier file path.
+	 * @param parameters
+	 *            the scan parameters.
+	 * @return the scan, giving the objects found in image coordinates.
+	 */
+	private Callable<List<Rect>> scan(final Mat image, final Rect tile, final String role, final String classifierName, final DetectionParameters parameters) {
+		return new Callable<List<Rect>>() {
+			@Override
+			public List<Rect> call() throws Exception {
+				final CascadeClassifier objectDetector = cascadeClassifierRegistry.acquire(role, classifierName);
+				final Mat tileImage = image.submat(tile);
+				final MatOfRect objectCoordinates = new MatOfRect();
+				try {
+					WebcamManager.detectObjects(objectDetector, tileImage, objectCoordinates, parameters);
+					final List<Rect> objects = new ArrayList<Rect>();
+					for (Rect object : objectCoordinates.toArray()) {
+						objects.add(new Rect(object.x + tile.x, object.y + tile.y, object.width, object.height));
+					}
+					return objects;
+				} finally {
+					objectCoordinates.release();
+					tileImage.release();
+					cascadeClassifierRegistry.release(role, classifierName, objectDetector);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Merge the objects found twice: from the largest object, the objects
+	 * overlapping an object kept or mostly inside it are dropped.
+	 *
+	 * @param objects
+	 *            the objects found, modified.
+	 * @return the objects kept.
+	 */
+	static List<Rect> suppress(final List<Rect> objects) {
+		Collections.sort(objects, new Comparator<Rect>() {
+			@Override
+			public int compare(final Rect object1, final Rect object2) {
+				return Double.compare((double) object2.width * object2.height, (double) object1.width * object1.height);
+			}
+		});
+		final List<Rect> kept = new ArrayList<Rect>(objects.size());
+		for (Rect object : objects) {
+			boolean duplicate = false;
+			for (Rect keptObject : kept) {
+				if (RegionsOfInterest.intersectionOverUnion(object, keptObject) > SUPPRESSION_OVERLAP
+						|| RegionsOfInterest.intersection(object, keptObject) > SUPPRESSION_CONTAINMENT * object.width * object.height) {
+					duplicate = true;
+					break;
+				}
+			}
+			if (!duplicate) {
+				kept.add(object);
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * @return the size of the tiles, 0 if the images are not split.
+	 */
+	private int getTileSize() {
+		return webcamProperties.getDetectionTileSize();
+	}
+
+}
@@ -0,0 +1,252 @@
+package com.dachlab.service.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.dachlab.model.User;
+import com.dachlab.properties.IWebcamProperties;
+import com.dachlab.service.IUserSevice;
+
+/**
+ * Cache of the users associated to the labels of the face recognition model,
+ * so that recognizing a face does not query the user service. The cache is
+ * filled when the model is trained, the least recently used entries are
+ * evicted beyond the configured size and entries expire after the configured
+ * time to live. Names not found in the user service are cached as well.
+ * Passwords are masked when the users are loaded.
+ *
+ * @author dcharles
+ */
+@Component("userCache")
+public class UserCache {
+
+	/** Cache size used when not configured. */
+	private static final int DEFAULT_SIZE = 64;
+
+	/** Time to live used when not configured, in ms. */
+	private static final long DEFAULT_TIME_TO_LIVE = 600000;
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private IUserSevice userService;
+
+	@Autowired
+	private IWebcamProperties webcamProperties;
+
+	/** Users by label, in access order. */
+	private final Map<Integer, CachedUser> users = new LinkedHashMap<Integer, CachedUser>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Integer, CachedUser> eldest) {
+			return size() > getSize();
+		}
+	};
+
+	/**
+	 * Users looked up by name without a label, null if not found, in access
+	 * order. Guarded by the users lock.
+	 */
+	private final Map<String, CachedUser> usersByName = new LinkedHashMap<String, CachedUser>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, CachedUser> eldest) {
+			return size() > getSize();
+		}
+	};
+
+	/**
+	 * Get the user associated to a label, loading it from the user service if
+	 * not cached.
+	 *
+	 * @param label
+	 *            label of the model.
+	 * @param name
+	 *            name associated to the label.
+	 * @return the user, null if not found.
+	 */
+	public User get(final int label, final String name) {
+		synchronized (users) {
+			final CachedUser cachedUser = users.get(label);
+			if (cachedUser != null && cachedUser.isValid(name)) {
+				return cachedUser.user;
+			}
+		}
+		return load(label, name);
+	}
+
+	/**
+	 * Get a user by name, loading it from the user service if not cached. A
+	 * name not found is cached too.
+	 *
+	 * @param name
+	 *            name of the user.
+	 * @return the user, null if not found.
+	 */
+	public User getByUserName(final String name) {
+		synchronized (users) {
+			for (CachedUser cachedUser : users.values()) {
+				if (cachedUser.isValid(name)) {
+					return cachedUser.user;
+				}
+			}
+			final CachedUser cachedUser = usersByName.get(name);
+			if (cachedUser != null && cachedUser.isValid(name)) {
+				return cachedUser.user;
+			}
+		}
+		final User user = loadUser(name);
+		synchronized (users) {
+			usersByName.put(name, new CachedUser(name, user, System.currentTimeMillis() + getTimeToLive()));
+		}
+		return user;
+	}
+
+	/**
+	 * Load the users of the labels not cached yet or expired.
+	 *
+	 * @param names
+	 *            names by label.
+	 */
+	public void fill(final Map<Integer, String> names) {
+		final long startTime = System.currentTimeMillis();
+		final List<Integer> missingLabels = new ArrayList<Integer>();
+		synchronized (users) {
+			for (Map.Entry<Integer, String> name : names.entrySet()) {
+				final CachedUser cachedUser = users.get(name.getKey());
+				if (cachedUser == null || !cachedUser.isValid(name.getValue())) {
+					missingLabels.add(name.getKey());
+				}
+			}
+		}
+		for (Integer label : missingLabels) {
+			load(label, names.get(label));
+		}
+		if (!missingLabels.isEmpty()) {
+			log.debug(missingLabels.size() + " users cached in " + (System.currentTimeMillis() - startTime) + " ms.");
+		}
+	}
+
+	/**
+	 * Forget all the users and load the users of the given labels, the labels
+	 * of a new model.
+	 *
+	 * @param names
+	 *            names by label.
+	 */
+	public void reset(final Map<Integer, String> names) {
+		synchronized (users) {
+			users.clear();
+			usersByName.clear();
+		}
+		fill(names);
+	}
+
+	/**
+	 * Forget a user, so that it is loaded again the next time.
+	 *
+	 * @param name
+	 *            name of the user.
+	 */
+	public void invalidate(final String name) {
+		synchronized (users) {
+			final Iterator<CachedUser> iterator = users.values().iterator();
+			while (iterator.hasNext()) {
+				if (iterator.next().name.equals(name)) {
+					iterator.remove();
+				}
+			}
+			usersByName.remove(name);
+		}
+	}
+
+	/**
+	 * Load the user of a label and cache it.
+	 *
+	 * @param label
+	 *            the label.
+	 * @param name
+	 *            name associated to the label.
+	 * @return the user, null if not found.
+	 */
+	private User load(final int label, final String name) {
+		final User user = loadUser(name);
+		synchronized (users) {
+			users.put(label, new CachedUser(name, user, System.currentTimeMillis() + getTimeToLive()));
+		}
+		return user;
+	}
+
+	/**
+	 * Load a user from the user service.
+	 *
+	 * @param name
+	 *            name of the user.
+	 * @return the user with its password masked, null if not found.
+	 */
+	private User loadUser(final String name) {
+		try {
+			final User user = userService.getByUserName(name);
+			if (user == null || user.getUserId() == 0) {
+				return null;
+			}
+			user.setUserPassword("*****");
+			return user;
+		} catch (Exception e) {
+			log.error("Unable to get the user " + name + ".", e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return the maximum number of users cached.
+	 */
+	private int getSize() {
+		return webcamProperties.getUserCacheSize() > 0 ? webcamProperties.getUserCacheSize() : DEFAULT_SIZE;
+	}
+
+	/**
+	 * @return the time to live of the users cached, in ms.
+	 */
+	private long getTimeToLive() {
+		return webcamProperties.getUserCacheTimeToLive() > 0 ? webcamProperties.getUserCacheTimeToLive() : DEFAULT_TIME_TO_LIVE;
+	}
+
+	/**
+	 * User cached with its name and expiry time.
+	 */
+	private static class CachedUser {
+
+		private final String name;
+
+		private final User user;
+
+		private final long expiryTime;
+
+		CachedUser(final String name, final User user, final long expiryTime) {
+			this.name = name;
+			this.user = user;
+			this.expiryTime = expiryTime;
+		}
+
+		/**
+		 * @param expectedName
+		 *            name expected for the label.
+		 * @return true if the user is still valid for this name.
+		 */
+		boolean isValid(final String expectedName) {
+			return name.equals(expectedName) && System.currentTimeMillis() < expiryTime;
+		}
+	}
+
+}
@@ -0,0 +1,483 @@
+package com.dachlab.service.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.lang3.time.DateFormatUtils;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.videoio.VideoWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.dachlab.properties.IWebcamProperties;
+import com.dachlab.storage.IStorageService;
+
+/**
+ * Streaming video recorder. Frames are appended to the video file being
+ * written by a dedicated encoder thread, through a bounded queue of
+ * {@link EncodedFrame}: the frames are held compressed, about 10 to 20 times
+ * smaller than their pixels, and the capture never waits for the encoding.
+ * Frames arriving while the queue is full are dropped.
+ *
+ * A video is written in a recording folder inside the video folder, then moved
+ * to the video folder once complete and queued for storage, so that a video is
+ * never uploaded while being written.
+ *
+ * A new file is started after {@link IWebcamProperties#getMaximumFramesInVideoFiles()}
+ * frames or once the file reaches {@link IWebcamProperties#getMaximumVideoFileSize()}
+ * bytes.
+ *
+ * While nothing is recorded, the frames of the last seconds can be kept in a
+ * pre-roll buffer, as JPEG. They are written ahead of the first frame
+ * appended, so that the video shows how the event started. Two pre-roll
+ * buffers are allocated once and swapped: one is filled by the capture while
+ * the other one is written by the encoder.
+ *
+ * @author dcharles
+ */
+@Component("videoRecorder")
+public class VideoRecorder {
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	/** Queue size used when not configured. */
+	private static final int DEFAULT_QUEUE_SIZE = 32;
+
+	/** Folder of the videos being written, inside the video folder. */
+	private static final String RECORDING_FOLDER = ".recording";
+
+	/** Maximum time to wait for the encoder to finish the file at shutdown. */
+	private static final long SHUTDOWN_TIMEOUT = 5000;
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private IWebcamProperties webcamProperties;
+
+	@Autowired
+	private IStorageService storageService;
+
+	/** Frames and pre-roll buffers to write, end of video markers. */
+	private final BlockingQueue<RecorderEntry> entries = new LinkedBlockingQueue<RecorderEntry>();
+
+	/** Number of frames in the queue, bounded by the queue size. */
+	private final AtomicInteger queuedFrames = new AtomicInteger();
+
+	private final AtomicLong droppedFrames = new AtomicLong();
+
+	/** Guards the pre-roll buffers and the encoding buffers of the capture. */
+	private final Object preRollLock = new Object();
+
+	/** Pre-roll buffer filled by the capture, null if disabled. */
+	private PreRollBuffer preRoll;
+
+	/** Pre-roll buffer available for the next swap, null while written. */
+	private PreRollBuffer sparePreRoll;
+
+	private final MatOfByte encodedFrame = new MatOfByte();
+
+	private byte[] encodedBytes = new byte[0];
+
+	private MatOfInt jpegParameters;
+
+	private Thread encoderThread;
+
+	/** Video file being written, only used by the encoder thread. */
+	private VideoWriter videoWriter;
+
+	/** Name of the video being written, in the recording folder. */
+	private String videoFileName;
+
+	private int writtenFrames;
+
+	private long videoStartTime;
+
+	/** Buffers used by the encoder thread to decode the frames. */
+	private final MatOfByte decodedBytes = new MatOfByte();
+
+	private byte[] preRollBytes = new byte[0];
+
+	/**
+	 * Start the encoder thread.
+	 */
+	@PostConstruct
+	public void initialize() {
+		if (webcamProperties.getPreRollDuration() > 0 && webcamProperties.getPreRollBufferSize() > 0) {
+			final long duration = webcamProperties.getPreRollDuration();
+			final int maximumFrames = (int) (duration * Math.max(1, webcamProperties.getVideoFPS()) / 1000) * 2 + 1;
+			preRoll = new PreRollBuffer(webcamProperties.getPreRollBufferSize(), maximumFrames, duration);
+			sparePreRoll = new PreRollBuffer(webcamProperties.getPreRollBufferSize(), maximumFrames, duration);
+			jpegParameters = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, webcamProperties.getPreRollJpegQuality());
+		}
+		recoverVideos();
+		encoderThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				encode();
+			}
+		}, "video-recorder");
+		encoderThread.setDaemon(true);
+		encoderThread.start();
+	}
+
+	/**
+	 * Write the frames queued, close the video file and stop the encoder
+	 * thread.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		entries.offer(RecorderEntry.SHUTDOWN);
+		try {
+			encoderThread.join(SHUTDOWN_TIMEOUT);
+		} catch (InterruptedException e) {
+			log.error("Error while waiting for the video recorder to terminate.", e);
+		}
+	}
+
+	/**
+	 * Append a frame to the video being recorded, starting a new video if
+	 * none. Never blocks: the frame is dropped if the encoder is late.
+	 *
+	 * @param frame
+	 *            the frame, encoded.
+	 * @return true if queued, false if dropped.
+	 */
+	public boolean append(final EncodedFrame frame) {
+		flushPreRoll();
+		if (queuedFrames.incrementAndGet() > getQueueSize()) {
+			queuedFrames.decrementAndGet();
+			if (droppedFrames.incrementAndGet() % 100 == 1) {
+				log.warn("The video encoder is late, " + droppedFrames.get() + " frames dropped so far.");
+			}
+			return false;
+		}
+		entries.offer(new RecorderEntry(frame));
+		return true;
+	}
+
+	/**
+	 * Keep a frame in the pre-roll buffer, to be written ahead of the next
+	 * frame appended. The image is encoded, the caller keeps its ownership.
+	 *
+	 * @param image
+	 *            the frame.
+	 */
+	public void preRecord(final Mat image) {
+		synchronized (preRollLock) {
+			if (preRoll != null && Imgcodecs.imencode(EncodedFrame.JPEG, image, encodedFrame, jpegParameters)) {
+				addToPreRoll(encodedFrame, System.currentTimeMillis());
+			}
+		}
+	}
+
+	/**
+	 * Keep a captured frame in the pre-roll buffer, reusing its JPEG view if
+	 * already computed for another capture.
+	 *
+	 * @param frame
+	 *            the frame.
+	 */
+	public void preRecord(final FrameContext frame) {
+		synchronized (preRollLock) {
+			if (preRoll != null) {
+				addToPreRoll(frame.getJpeg(webcamProperties.getPreRollJpegQuality()), frame.getTimestamp());
+			}
+		}
+	}
+
+	/**
+	 * Copy an encoded frame into the pre-roll buffer. Must be called while
+	 * holding the pre-roll lock.
+	 *
+	 * @param jpeg
+	 *            the encoded frame.
+	 * @param timestamp
+	 *            time the frame has been captured.
+	 */
+	private void addToPreRoll(final MatOfByte jpeg, final long timestamp) {
+		final int length = (int) jpeg.total();
+		if (encodedBytes.length < length) {
+			encodedBytes = new byte[length + length / 2];
+		}
+		jpeg.get(0, 0, encodedBytes);
+		preRoll.add(encodedBytes, length, timestamp);
+	}
+
+	/**
+	 * Hand the pre-roll buffer over to the encoder if it holds frames.
+	 */
+	private void flushPreRoll() {
+		synchronized (preRollLock) {
+			if (preRoll == null || preRoll.isEmpty()) {
+				return;
+			}
+			if (sparePreRoll == null) {
+				// The previous pre-roll is still being written.
+				preRoll.clear();
+				return;
+			}
+			entries.offer(new RecorderEntry(preRoll));
+			preRoll = sparePreRoll;
+			sparePreRoll = null;
+		}
+	}
+
+	/**
+	 * Drop the frames of the pre-roll buffer, so that they are not written
+	 * ahead of the frames of another capture.
+	 */
+	public void clearPreRoll() {
+		synchronized (preRollLock) {
+			if (preRoll != null) {
+				preRoll.clear();
+			}
+		}
+	}
+
+	/**
+	 * Close the video being recorded once the frames already queued are
+	 * written. The next frame appended starts a new video.
+	 */
+	public void endVideo() {
+		entries.offer(RecorderEntry.END_OF_VIDEO);
+	}
+
+	/**
+	 * @return the number of frames dropped because the encoder was late.
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames.get();
+	}
+
+	/**
+	 * Write the queued frames until shut down.
+	 */
+	private void encode() {
+		try {
+			while (true) {
+				final RecorderEntry entry = entries.take();
+				if (entry == RecorderEntry.SHUTDOWN) {
+					break;
+				}
+				if (entry == RecorderEntry.END_OF_VIDEO) {
+					closeVideo();
+					continue;
+				}
+				if (entry.preRoll != null) {
+					writePreRoll(entry.preRoll);
+					continue;
+				}
+				queuedFrames.decrementAndGet();
+				try {
+					writeEncoded(entry.frame.getBytes(), entry.frame.getBytes().length);
+				} catch (Exception e) {
+					log.error("Unable to write a frame to " + videoFileName + ".", e);
+				}
+			}
+		} catch (InterruptedException e) {
+			log.debug("Video recorder interrupted.");
+		} finally {
+			closeVideo();
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Write the frames of a pre-roll buffer and give the buffer back.
+	 *
+	 * @param buffer
+	 *            the pre-roll buffer.
+	 */
+	private void writePreRoll(final PreRollBuffer buffer) {
+		final int frames = buffer.size();
+		try {
+			for (int i = 0; i < frames; i++) {
+				final int length = buffer.getLength(i);
+				if (preRollBytes.length < length) {
+					preRollBytes = new byte[length + length / 2];
+				}
+				buffer.get(i, preRollBytes);
+				writeEncoded(preRollBytes, length);
+			}
+			log.debug(frames + " pre-roll frames written to " + videoFileName + ".");
+		} catch (Exception e) {
+			log.error("Unable to write the pre-roll frames to " + videoFileName + ".", e);
+		} finally {
+			buffer.clear();
+			synchronized (preRollLock) {
+				sparePreRoll = buffer;
+			}
+		}
+	}
+
+	/**
+	 * Decode and write an encoded frame.
+	 *
+	 * @param bytes
+	 *            the encoded frame, possibly followed by unused bytes.
+	 * @param length
+	 *            the length of the encoded frame.
+	 */
+	private void writeEncoded(final byte[] bytes, final int length) {
+		decodedBytes.create(length, 1, CvType.CV_8UC1);
+		decodedBytes.put(0, 0, bytes);
+		final Mat frame = Imgcodecs.imdecode(decodedBytes, Imgcodecs.IMREAD_COLOR);
+		try {
+			if (!frame.empty()) {
+				write(frame);
+			}
+		} finally {
+			frame.release();
+		}
+	}
+
+	/**
+	 * Write a frame, opening a new video file if needed and closing it once
+	 * a limit is reached.
+	 *
+	 * @param frame
+	 *            the frame.
+	 */
+	private void write(final Mat frame) {
+		if (videoWriter == null) {
+			final File recordingFolder = getRecordingFolder();
+			if (!recordingFolder.isDirectory() && !recordingFolder.mkdirs()) {
+				log.error("Unable to create the recording folder " + recordingFolder + ".");
+				return;
+			}
+			videoFileName = recordingFolder.getPath() + File.separator + DateFormatUtils.format(new Date(), "yyyyMMdd HH-mm-ss") + "-" + UUID.randomUUID() + ".avi";
+			videoWriter = new VideoWriter();
+			if (!videoWriter.open(videoFileName, VideoWriter.fourcc('D', 'I', 'V', 'X'), webcamProperties.getVideoFPS(), frame.size(), true)) {
+				log.error("Unable to open the video file " + videoFileName + ".");
+				videoWriter.release();
+				videoWriter = null;
+				return;
+			}
+			writtenFrames = 0;
+			videoStartTime = System.currentTimeMillis();
+			log.debug("Recording video " + videoFileName + ".");
+		}
+		videoWriter.write(frame);
+		writtenFrames++;
+		if (writtenFrames >= webcamProperties.getMaximumFramesInVideoFiles() || isMaximumSizeReached()) {
+			closeVideo();
+		}
+	}
+
+	/**
+	 * Check the size of the video file, about once per second of video.
+	 *
+	 * @return true if the file has reached the maximum size.
+	 */
+	private boolean isMaximumSizeReached() {
+		return webcamProperties.getMaximumVideoFileSize() > 0 && writtenFrames % Math.max(1, webcamProperties.getVideoFPS()) == 0
+				&& new File(videoFileName).length() >= webcamProperties.getMaximumVideoFileSize();
+	}
+
+	/**
+	 * Close the video file being written, if any.
+	 */
+	private void closeVideo() {
+		if (videoWriter == null) {
+			return;
+		}
+		videoWriter.release();
+		videoWriter = null;
+		log.info("Video file " + videoFileName + " written to disk (" + writtenFrames + " frames in " + (System.currentTimeMillis() - videoStartTime) / 1000 + " seconds).");
+		complete(new File(videoFileName));
+	}
+
+	/**
+	 * Move a complete video to the video folder, in one step, and queue it
+	 * for storage.
+	 *
+	 * @param video
+	 *            the video, in the recording folder.
+	 */
+	private void complete(final File video) {
+		final File target = new File(webcamProperties.getVideoFilesPath(), video.getName());
+		try {
+			Files.move(video.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.error("Unable to move the video " + video + " to " + target + ".", e);
+			return;
+		}
+		storageService.addFileToStorageQueue(target);
+	}
+
+	/**
+	 * Complete the videos left in the recording folder by a crash. They may
+	 * be truncated, but are kept rather than lost.
+	 */
+	private void recoverVideos() {
+		final File[] videos = getRecordingFolder().listFiles();
+		if (videos == null) {
+			return;
+		}
+		for (File video : videos) {
+			if (video.isFile()) {
+				log.warn("Recovering the video " + video + " left by a previous run.");
+				complete(video);
+			}
+		}
+	}
+
+	/**
+	 * @return the folder of the videos being written.
+	 */
+	private File getRecordingFolder() {
+		return new File(webcamProperties.getVideoFilesPath(), RECORDING_FOLDER);
+	}
+
+	/**
+	 * @return the maximum number of frames waiting to be written.
+	 */
+	private int getQueueSize() {
+		return webcamProperties.getRecorderQueueSize() > 0 ? webcamProperties.getRecorderQueueSize() : DEFAULT_QUEUE_SIZE;
+	}
+
+	/**
+	 * Frame or pre-roll buffer to write, or marker.
+	 */
+	private static class RecorderEntry {
+
+		static final RecorderEntry END_OF_VIDEO = new RecorderEntry((EncodedFrame) null);
+
+		static final RecorderEntry SHUTDOWN = new RecorderEntry((EncodedFrame) null);
+
+		private final EncodedFrame frame;
+
+		private final PreRollBuffer preRoll;
+
+		RecorderEntry(final EncodedFrame frame) {
+			this.frame = frame;
+			this.preRoll = null;
+		}
+
+		RecorderEntry(final PreRollBuffer preRoll) {
+			this.frame = null;
+			this.preRoll = preRoll;
+		}
+	}
+
+}
@@ -4,7 +4,6 @@ import java.util.Date;
 
 import org.apache.commons.lang3.time.DateFormatUtils;
 import org.apache.commons.lang3.time.DateUtils;
-import org.opencv.core.Mat;
 import org.opencv.core.Rect;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,6 +18,9 @@ public class WatchImageHandler implements ICapturedImageHandler {
 
 	long lastBodyCheckTime = 0;
 
+	/** Bodies are only looked for where motion is detected. */
+	private final MotionDetector motionDetector;
+
 	/**
 	 * Constructor using the WebcamManager.
 	 * 
@@ -27,11 +29,20 @@ public class WatchImageHandler implements ICapturedImageHandler {
 	 */
 	public WatchImageHandler(final WebcamManager webcamManager) {
 		this.webcamManager = webcamManager;
+		this.motionDetector = webcamManager.createMotionDetector();
 	}
 
 	@Override
-	public void handle(final Mat image) {
-		if (lastBodyDetectedTime != 0) {
+	public void handle(final FrameContext frame) {
+		// Nothing has moved, the bodies found before are still there or gone.
+		// The bodies are looked for first, so that the frame is recorded with
+		// their rectangles.
+		if (motionDetector.detect(frame)) {
+			getBodies(frame);
+		}
+		if (lastBodyDetectedTime == 0) {
+			webcamManager.addPreRollFrame(frame);
+		} else {
 			if (!webcamManager.isRecording() || System.currentTimeMillis() > DateUtils.addSeconds(new Date(lastBodyDetectedTime), webcamManager.webcamProperties.getVideoSequenceLength()).getTime()) {
 				log.debug("Time comparison: " + DateFormatUtils.format(DateUtils.addSeconds(new Date(lastBodyDetectedTime), webcamManager.webcamProperties.getVideoSequenceLength()).getTime(),
 						"HH:mm:ss") + ">" + DateFormatUtils.format(System.currentTimeMillis(), "HH:mm:ss") + " Result: " + (System.currentTimeMillis() > DateUtils
@@ -39,21 +50,20 @@ public class WatchImageHandler implements ICapturedImageHandler {
 				webcamManager.writeRecordedVideo();
 				lastBodyDetectedTime = 0;
 			} else {
-				webcamManager.addCapturedFrame(image);
+				webcamManager.addCapturedFrame(frame);
 			}
 		}
-		getBodies(image);
 	}
 
-	private void getBodies(final Mat image) {
+	private void getBodies(final FrameContext frame) {
 		// Body check every 1 seconds.
 		if (lastBodyCheckTime == 0 || System.currentTimeMillis() > DateUtils.addSeconds(new Date(lastBodyCheckTime), 1).getTime()) {
-			final Rect[] bodyCoordinates = webcamManager.getBodyCoordinates(image).toArray();
+			final Rect[] bodyCoordinates = webcamManager.getBodyCoordinates(frame.getGray(), webcamManager.getRegionsOfInterest(motionDetector, frame.getSize())).toArray();
 			lastBodyCheckTime = System.currentTimeMillis();
 			if (bodyCoordinates.length != 0) {
 				log.debug(bodyCoordinates.length + " body found.");
 				for (int i = 0; i < bodyCoordinates.length; i++) {
-					webcamManager.drawRectangleOnImage(image, bodyCoordinates[i].tl(), bodyCoordinates[i].br(), null);
+					webcamManager.drawRectangleOnImage(frame.getImage(), bodyCoordinates[i].tl(), bodyCoordinates[i].br(), null);
 				}
 				lastBodyDetectedTime = System.currentTimeMillis();
 				webcamManager.record();
@@ -1,59 +1,188 @@
 package com.dachlab.service.util;
 
 import org.opencv.core.Mat;
-import org.opencv.videoio.VideoCapture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * Capture images from the webcam.
+ * Capture images from the webcam. Each capturer consumes the frames of the
+ * distributor on its own thread, at the pace of its handler, the frames it
+ * cannot keep up with are dropped according to its {@link FrameDropPolicy}.
  * 
  * @author dcharles
  */
 class WebCamCapturer extends Thread {
 
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
 	private volatile boolean stopRequested = false;
 
-	private volatile VideoCapture camera;
+	private final String captureName;
+
+	private final FrameDistributor frameDistributor;
 
 	private ICapturedImageHandler capturedImageHandler;
 
-	private int duration;
+	private final FrameDropPolicy policy;
+
+	private final int policyParameter;
+
+	/** Sequence number of the next frame to read. */
+	private volatile long nextSequence;
+
+	private volatile long handledFrames = 0;
+
+	private volatile long droppedFrames = 0;
+
+	private volatile long overrunFrames = 0;
 
 	/**
-	 * Constructor using a camera.
+	 * Constructor using the frame distributor.
 	 * 
-	 * @param camera
-	 *            camera to capture from.
+	 * @param name
+	 *            name of the capture, used to name the thread.
+	 * @param frameDistributor
+	 *            distributor to capture from.
 	 * @param capturedImageHandler
 	 *            Image handled.
-	 * @param duration
-	 *            capture duration in seconds. -1 if unlimited.
+	 * @param policy
+	 *            policy applied when the handler is slower than the camera.
+	 * @param policyParameter
+	 *            parameter of the policy, the default one if 0 or less.
 	 */
-	public WebCamCapturer(final VideoCapture camera, final ICapturedImageHandler capturedImageHandler) {
-		this.camera = camera;
+	public WebCamCapturer(final String name, final FrameDistributor frameDistributor, final ICapturedImageHandler capturedImageHandler, final FrameDropPolicy policy,
+			final int policyParameter) {
+		super("capture-" + name);
+		this.captureName = name;
+		this.frameDistributor = frameDistributor;
 		this.capturedImageHandler = capturedImageHandler;
+		this.policy = policy;
+		this.policyParameter = policyParameter > 0 ? policyParameter : policy.getDefaultParameter(frameDistributor.getRingSize());
+		this.nextSequence = frameDistributor.getCursor() + 1;
 	}
 
 	@Override
 	public void run() {
 		stopRequested = false;
-		if (camera != null && camera.isOpened()) {
-			Mat image = new Mat();
-			while (camera.read(image)) {
-				if (stopRequested) {
-					break;
+		if (policy == FrameDropPolicy.BLOCK) {
+			frameDistributor.addBlockingConsumer(this);
+		}
+		// Handlers drawing on the image work on a copy reusing the same buffer.
+		final Mat image = new Mat();
+		final FrameContext context = new FrameContext(image);
+		try {
+			while (!stopRequested) {
+				final long cursor = frameDistributor.awaitCursor(nextSequence - 1, 1000);
+				if (cursor < nextSequence) {
+					continue;
+				}
+				final long sequence = selectSequence(cursor);
+				if (sequence > cursor) {
+					// Every Nth frame not published yet.
+					frameDistributor.awaitCursor(sequence - 1, 1000);
+					continue;
+				}
+				droppedFrames += sequence - nextSequence;
+				CapturedFrame frame = frameDistributor.acquire(sequence);
+				if (frame == null) {
+					// Overwritten by the camera, resume from the latest frame.
+					final long latestSequence = frameDistributor.getCursor();
+					overrunFrames += latestSequence - sequence;
+					frame = frameDistributor.acquire(latestSequence);
+					if (frame == null) {
+						advance(latestSequence);
+						continue;
+					}
 				}
-				if (capturedImageHandler != null) {
-					capturedImageHandler.handle(image);
+				// The frame is taken, the camera may overwrite its slot.
+				advance(frame.getSequence() + 1);
+				try {
+					if (stopRequested) {
+						break;
+					}
+					// The frame is held while handled, its derived images are
+					// shared with the other captures.
+					if (capturedImageHandler != null) {
+						context.reset(frame);
+						capturedImageHandler.handle(context);
+					}
+				} finally {
+					context.reset(null);
+					frame.release();
 				}
+				handledFrames++;
 			}
+		} finally {
+			if (policy == FrameDropPolicy.BLOCK) {
+				frameDistributor.removeBlockingConsumer(this);
+			}
+			image.release();
+		}
+		log.debug("Capture terminated. " + getStatistics());
+	}
+
+	/**
+	 * Move to the next frame to read, waking up the camera if it waits for
+	 * this capture.
+	 * 
+	 * @param sequence
+	 *            sequence number of the next frame to read.
+	 */
+	private void advance(final long sequence) {
+		nextSequence = sequence;
+		if (policy == FrameDropPolicy.BLOCK) {
+			frameDistributor.signalConsumed();
 		}
 	}
 
+	/**
+	 * Select the next frame to handle according to the policy.
+	 * 
+	 * @param cursor
+	 *            sequence number of the latest frame published.
+	 * @return the sequence number of the frame to handle.
+	 */
+	private long selectSequence(final long cursor) {
+		return policy.selectSequence(nextSequence, cursor, policyParameter, frameDistributor.getRingSize());
+	}
+
 	/**
 	 * Terminate the thread.
 	 */
 	public void terminate() {
 		stopRequested = true;
+		if (policy == FrameDropPolicy.BLOCK) {
+			frameDistributor.signalConsumed();
+		}
+	}
+
+	/**
+	 * @return true if the thread has been requested to terminate.
+	 */
+	boolean isTerminating() {
+		return stopRequested;
+	}
+
+	/**
+	 * @return the sequence number of the next frame to read.
+	 */
+	long getNextSequence() {
+		return nextSequence;
+	}
+
+	/**
+	 * @return the maximum time the camera waits for this capture, in
+	 *         milliseconds.
+	 */
+	int getMaximumBlockingTime() {
+		return policy == FrameDropPolicy.BLOCK ? policyParameter : 0;
+	}
+
+	/**
+	 * @return the frame counters of the capture.
+	 */
+	public CaptureStatistics getStatistics() {
+		return new CaptureStatistics(captureName, policy, policyParameter, handledFrames, droppedFrames, overrunFrames);
 	}
 
-}
\ No newline at end of file
+}
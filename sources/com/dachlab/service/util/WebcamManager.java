@@ -4,38 +4,32 @@ import java.io.File;
 import java.io.FilenameFilter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.lang3.time.DateFormatUtils;
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfByte;
-import org.opencv.core.MatOfPoint;
 import org.opencv.core.MatOfRect;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
-import org.opencv.face.Face;
-import org.opencv.face.FaceRecognizer;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.objdetect.CascadeClassifier;
-import org.opencv.utils.Converters;
-import org.opencv.videoio.VideoCapture;
-import org.opencv.videoio.VideoWriter;
-import org.opencv.videoio.Videoio;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import com.dachlab.google.IGoogleDriveService;
 import com.dachlab.model.User;
 import com.dachlab.properties.IWebcamProperties;
 import com.dachlab.service.IUserSevice;
+import com.dachlab.storage.IStorageService;
 
 @Component("webcamManager")
 public class WebcamManager {
@@ -44,51 +38,91 @@ public class WebcamManager {
 		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
 	}
 
+	/** Name of the face recognition capture. */
+	private static final String FACE_CAPTURE = "face";
+
+	/** Name of the watching capture. */
+	private static final String WATCH_CAPTURE = "watch";
+
+	/** Name of the motion detection capture. */
+	private static final String MOTION_CAPTURE = "motion";
+
+	/** Name of the users of the faces not recognized. */
+	static final String UNKNOWN_USER_NAME = "Unknown";
+
+	/** Role of the face detection classifier. */
+	private static final String FACE_CLASSIFIER = "face";
+
+	/** Role of the body detection classifier. */
+	private static final String BODY_CLASSIFIER = "body";
+
 	private final Logger log = LoggerFactory.getLogger(this.getClass());
 
-	private final FaceRecognizer faceRecognizer = Face.createLBPHFaceRecognizer(1, 8, 8, 8, 130);
+	@Autowired
+	private FaceRecognitionModel faceRecognitionModel;
 
-	// OpenCV needs to be trained before being able to recognize faces.
-	private boolean trained = false;
+	@Autowired
+	private CameraSession cameraSession;
 
-	private VideoCapture camera;
+	@Autowired
+	private FrameDistributor frameDistributor;
 
-	private WebCamCapturer webcamCapturer;
+	/** Running captures by name, all fed by the same camera stream. */
+	private final Map<String, WebCamCapturer> webcamCapturers = new HashMap<String, WebCamCapturer>();
 
 	@Autowired
 	private IUserSevice userService;
 
+	@Autowired
+	private UserCache userCache;
+
 	private User authenticatedUSer;
 
-	private List<Mat> capturedFramesQueue = new ArrayList<Mat>();
+	@Autowired
+	private VideoRecorder videoRecorder;
 
-	private boolean recording = false;
-	private boolean capturing = false;
+	@Autowired
+	private CascadeClassifierRegistry cascadeClassifierRegistry;
+
+	@Autowired
+	private TiledDetector tiledDetector;
+
+	@Autowired
+	private ImageWriter imageWriter;
+
+	/** Sizes of the objects recently found, by classifier role. */
+	private final Map<String, AdaptiveObjectSize> adaptiveObjectSizes = new ConcurrentHashMap<String, AdaptiveObjectSize>();
+
+	private volatile boolean recording = false;
+
+	/** Guards the recording capture. */
+	private final Object recordingLock = new Object();
+
+	/**
+	 * Name of the capture recording videos, null if none. The recorder, its
+	 * pre-roll and the file storage process are shared, so a single capture
+	 * records at a time.
+	 */
+	private String recordingCapture;
 
 	@Autowired
 	protected IWebcamProperties webcamProperties;
 
 	@Autowired
-	private IGoogleDriveService googleDriveServices;
+	private IStorageService storageService;
 
 	/**
-	 * Get an image from the webcam.
+	 * Get an image from the webcam. The image is a copy of the latest frame
+	 * published by the camera session, the caller is free to modify it.
 	 * 
 	 * @return the image captured.
 	 */
 	public Mat getImagefromWebcam() {
-		VideoCapture camera = null;
 		try {
-			camera = new VideoCapture(0);
-			Mat frame = new Mat();
-			camera.read(frame);
-			return frame;
+			return cameraSession.getLatestImageCopy();
 		} catch (Exception e) {
+			log.error("Unable to get an image from the webcam.", e);
 			return null;
-		} finally {
-			if (camera != null) {
-				camera.release();
-			}
 		}
 	}
 
@@ -118,16 +152,19 @@ public class WebcamManager {
 	 * @return true if succeeded.
 	 */
 	public boolean captureMotion(final int duration) {
-		startCapture(new StoreImageHandler(this));
-		// TODO FIXME Video files produced are empty. File seems to not be empty
-		// if no sleep...
+		startRecordingCapture(MOTION_CAPTURE, new StoreImageHandler(this));
+		boolean interrupted = false;
 		try {
 			Thread.sleep(duration * 1000);
 		} catch (InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			log.warn("Motion capture interrupted before " + duration + " seconds, stopping it.", e);
+			interrupted = true;
 		}
 		stopCaptureMotion();
+		if (interrupted) {
+			// Restored once stopped, the stop waiting for the capture thread.
+			Thread.currentThread().interrupt();
+		}
 
 		return true;
 	}
@@ -138,7 +175,7 @@ public class WebcamManager {
 	 * @return true if succeeded.
 	 */
 	public boolean startCaptureMotion() {
-		return startCapture(new StoreImageHandler(this));
+		return startRecordingCapture(MOTION_CAPTURE, new StoreImageHandler(this));
 	}
 
 	/**
@@ -148,8 +185,7 @@ public class WebcamManager {
 	 */
 	public boolean stopCaptureMotion() {
 		try {
-			stopCapture();
-			writeRecordedVideo();
+			stopRecordingCapture(MOTION_CAPTURE);
 			return true;
 		} catch (Exception e) {
 			log.error("Unable to complete the stop capture operation.", e);
@@ -163,19 +199,37 @@ public class WebcamManager {
 	 * @return true if succeeded.
 	 */
 	public boolean startCapture(final ICapturedImageHandler capturedImageHandler) {
-		log.debug("Starting capture.");
-		if (camera != null) {
-			camera.release();
-		}
-		camera = new VideoCapture(0);
-		if (!camera.isOpened()) {
+		return startCapture(FACE_CAPTURE, capturedImageHandler);
+	}
+
+	/**
+	 * Start a named capture from the webcam. Captures with different names run
+	 * at the same time on the same camera stream, a capture replaces the
+	 * running one with the same name.
+	 * 
+	 * @param name
+	 *            name of the capture.
+	 * @param capturedImageHandler
+	 *            handler of the captured images.
+	 * @return true if succeeded.
+	 */
+	public boolean startCapture(final String name, final ICapturedImageHandler capturedImageHandler) {
+		log.debug("Starting capture " + name + ".");
+		stopCapture(name);
+		if (!frameDistributor.connect()) {
 			log.error("Unable to start the camera.");
 			return false;
 		}
-		webcamCapturer = new WebCamCapturer(camera, capturedImageHandler);
+		final WebCamCapturer webcamCapturer = new WebCamCapturer(name, frameDistributor, capturedImageHandler, getFrameDropPolicy(name), getFrameDropPolicyParameter(name));
+		final WebCamCapturer replacedCapturer;
+		synchronized (webcamCapturers) {
+			replacedCapturer = webcamCapturers.put(name, webcamCapturer);
+		}
 		webcamCapturer.start();
-		capturing = true;
-		log.debug("Capture started.");
+		if (replacedCapturer != null) {
+			terminate(replacedCapturer);
+		}
+		log.debug("Capture " + name + " started.");
 		return true;
 	}
 
@@ -185,17 +239,93 @@ public class WebcamManager {
 	 * @return true if succeeded.
 	 */
 	public boolean stopCapture() {
+		return stopCapture(FACE_CAPTURE);
+	}
+
+	/**
+	 * Stop a named capture.
+	 * 
+	 * @param name
+	 *            name of the capture.
+	 * @return true if the capture was running.
+	 */
+	public boolean stopCapture(final String name) {
+		final WebCamCapturer webcamCapturer;
+		synchronized (webcamCapturers) {
+			webcamCapturer = webcamCapturers.remove(name);
+		}
+		if (webcamCapturer == null) {
+			return false;
+		}
+		terminate(webcamCapturer);
+		log.debug("Capture " + name + " stopped.");
+		return true;
+	}
+
+	/**
+	 * Get the frame drop policy configured for a capture.
+	 * 
+	 * @param name
+	 *            name of the capture.
+	 * @return the policy, {@link FrameDropPolicy#LATEST} if not configured.
+	 */
+	private FrameDropPolicy getFrameDropPolicy(final String name) {
+		final Map<String, String> framePolicy = webcamProperties.getFramePolicy();
+		if (framePolicy == null || framePolicy.get(name) == null) {
+			return FrameDropPolicy.LATEST;
+		}
+		try {
+			return FrameDropPolicy.valueOf(framePolicy.get(name).trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			log.error("Unknown frame drop policy " + framePolicy.get(name) + " for capture " + name + ", using " + FrameDropPolicy.LATEST + ".");
+			return FrameDropPolicy.LATEST;
+		}
+	}
+
+	/**
+	 * Get the parameter of the frame drop policy configured for a capture.
+	 * 
+	 * @param name
+	 *            name of the capture.
+	 * @return the parameter, 0 if not configured.
+	 */
+	private int getFrameDropPolicyParameter(final String name) {
+		final Map<String, Integer> framePolicyParameter = webcamProperties.getFramePolicyParameter();
+		if (framePolicyParameter == null || framePolicyParameter.get(name) == null) {
+			return 0;
+		}
+		return framePolicyParameter.get(name);
+	}
+
+	/**
+	 * Get the frame counters of the running captures.
+	 * 
+	 * @return the counters of each capture.
+	 */
+	public List<CaptureStatistics> getCaptureStatistics() {
+		final List<CaptureStatistics> statistics = new ArrayList<CaptureStatistics>();
+		synchronized (webcamCapturers) {
+			for (WebCamCapturer webcamCapturer : webcamCapturers.values()) {
+				statistics.add(webcamCapturer.getStatistics());
+			}
+		}
+		return statistics;
+	}
+
+	/**
+	 * Terminate a capturer and disconnect it from the frame distributor.
+	 * 
+	 * @param webcamCapturer
+	 *            the capturer.
+	 */
+	private void terminate(final WebCamCapturer webcamCapturer) {
 		webcamCapturer.terminate();
 		try {
 			webcamCapturer.join(1000);
 		} catch (InterruptedException e) {
 			log.error("Error while attempting to terminate the Webcapturer", e);
 		}
-		log.debug("Capture stopped. Releasing camera.");
-		camera.release();
-		capturing = false;
-		log.debug("Released.");
-		return true;
+		frameDistributor.disconnect();
 	}
 
 	public ICapturedImageHandler getDefaultCapturedImageHandler() {
@@ -203,37 +333,65 @@ public class WebcamManager {
 	}
 
 	/**
-	 * Save the image to disk.
+	 * Save the image to disk, in the configured image format. The image is
+	 * written before this returns.
 	 * 
 	 * @param image
-	 *            the image to save.
+	 *            the image to save. The caller keeps its ownership.
 	 * @return true if succeed.
 	 */
 	public boolean saveImage(final Mat image) {
-		return saveImage(image, webcamProperties.getPath()) == null ? false : true;
+		final File file = new File(webcamProperties.getPath() + UUID.randomUUID() + EncodedFrame.extensionOf(webcamProperties.getImageFormat()));
+		return imageWriter.writeNow(image, file, webcamProperties.getImageQuality());
 	}
 
 	/**
-	 * Save the image to a specified folder.
+	 * Save the image to a specified folder, in the configured image format.
+	 * The image is written in the background: the file does not exist yet
+	 * when this returns.
 	 * 
 	 * @param image
-	 *            the image to save.
+	 *            the image to save. The caller keeps its ownership.
 	 * @param path
 	 *            the path to save the image to.
-	 * @return true if succeed.
+	 * @return the name of the file to be written, null if dropped.
 	 */
 	public String saveImage(final Mat image, final String path) {
-		final String imageName = path + UUID.randomUUID() + ".png";
-		try {
-			if (Imgcodecs.imwrite(imageName, image)) {
-				return imageName;
-			} else {
-				return null;
-			}
-		} catch (Exception e) {
-			log.error("Unable to save image " + image + ".", e);
-			return null;
-		}
+		return saveImage(image, path, webcamProperties.getImageFormat(), webcamProperties.getImageQuality(), null);
+	}
+
+	/**
+	 * Save the image to a specified folder. The image is written in the
+	 * background: the file does not exist yet when this returns, the
+	 * listener is notified once it does.
+	 * 
+	 * @param image
+	 *            the image to save. The caller keeps its ownership.
+	 * @param path
+	 *            the path to save the image to.
+	 * @param format
+	 *            the format, png or jpg.
+	 * @param quality
+	 *            quality from 0 to 100.
+	 * @param listener
+	 *            notified once the file is written, null if none.
+	 * @return the name of the file to be written, null if dropped.
+	 */
+	public String saveImage(final Mat image, final String path, final String format, final int quality, final ImageWriter.Listener listener) {
+		return imageWriter.write(image, path, format, quality, listener);
+	}
+
+	/**
+	 * Save an annotated image to the predicted images folder, in the
+	 * background.
+	 * 
+	 * @param image
+	 *            the image to save. The caller keeps its ownership.
+	 * @return the name of the file to be written, null if dropped. The file
+	 *         does not exist yet.
+	 */
+	public String savePredictedImage(final Mat image) {
+		return saveImage(image, webcamProperties.getPredictedImagesPath(), webcamProperties.getPredictedImagesFormat(), webcamProperties.getPredictedImagesQuality(), null);
 	}
 
 	/**
@@ -244,9 +402,22 @@ public class WebcamManager {
 	 * @return The coordinates of the faces found.
 	 */
 	private MatOfRect getFacesCoordinates(final Mat image) {
+		return getFacesCoordinates(image, null);
+	}
+
+	/**
+	 * Get the coordinates of the faces found in regions of the image.
+	 * 
+	 * @param image
+	 *            The image where to look for the faces.
+	 * @param regions
+	 *            The regions to scan, null for the whole image.
+	 * @return The coordinates of the faces found.
+	 */
+	private MatOfRect getFacesCoordinates(final Mat image, final List<Rect> regions) {
 		final String classifierName = webcamProperties.getFaceDetectionClassifierName();
 		try {
-			return getObjectCoordinates(image, classifierName);
+			return getObjectCoordinates(image, regions, FACE_CLASSIFIER, classifierName);
 		} catch (Exception e) {
 			log.error("Unabel to retrieve the face(s) from the image. Classifier file is " + classifierName + ".", e);
 			return null;
@@ -261,9 +432,22 @@ public class WebcamManager {
 	 * @return The coordinates of the bodies found.
 	 */
 	protected MatOfRect getBodyCoordinates(final Mat image) {
+		return getBodyCoordinates(image, null);
+	}
+
+	/**
+	 * Get the coordinates of the bodies found in regions of the image.
+	 * 
+	 * @param image
+	 *            The image where to look for the bodies.
+	 * @param regions
+	 *            The regions to scan, null for the whole image.
+	 * @return The coordinates of the bodies found.
+	 */
+	protected MatOfRect getBodyCoordinates(final Mat image, final List<Rect> regions) {
 		final String classifierName = webcamProperties.getBodyDetectionClassifierName();
 		try {
-			return getObjectCoordinates(image, classifierName);
+			return getObjectCoordinates(image, regions, BODY_CLASSIFIER, classifierName);
 		} catch (Exception e) {
 			log.error("Unabel to retrieve the body(ies) from the image. Classifier file is " + classifierName + ".", e);
 			return null;
@@ -275,19 +459,150 @@ public class WebcamManager {
 	 * 
 	 * @param image
 	 *            the image to analyze.
+	 * @param regions
+	 *            the regions to scan, null for the whole image.
+	 * @param role
+	 *            the role of the classifier, face or body.
 	 * @param classifierName
 	 *            the classifier finle path that will represent the object to
 	 *            find in the image.
 	 * @return The coordinates of all the objects found in the image.
 	 * @throws Exception
 	 */
-	private MatOfRect getObjectCoordinates(final Mat image, String classifierName) throws Exception {
+	private MatOfRect getObjectCoordinates(final Mat image, final List<Rect> regions, final String role, String classifierName) throws Exception {
 		MatOfRect objectCoordinates = new MatOfRect();
-		CascadeClassifier objectDetector = new CascadeClassifier(classifierName);
-		objectDetector.detectMultiScale(image, objectCoordinates);
+		final AdaptiveObjectSize adaptiveObjectSize = getAdaptiveObjectSize(role);
+		DetectionParameters parameters = getDetectionParameters(role);
+		if (adaptiveObjectSize != null) {
+			parameters = adaptiveObjectSize.adapt(parameters);
+		}
+		final List<Rect> objects = new ArrayList<Rect>();
+		if (regions == null) {
+			scan(image, 0, 0, role, classifierName, parameters, objects);
+		} else {
+			for (Rect region : regions) {
+				final Mat regionImage = image.submat(region);
+				scan(regionImage, region.x, region.y, role, classifierName, parameters, objects);
+				regionImage.release();
+			}
+		}
+		if (adaptiveObjectSize != null) {
+			adaptiveObjectSize.observe(objects);
+		}
+		objectCoordinates.fromList(objects);
 		return objectCoordinates;
 	}
 
+	/**
+	 * Scan an image or a region of an image with a classifier, in tiles on
+	 * all the cores if parallel detection is enabled and the image is large.
+	 * 
+	 * @param image
+	 *            the image to scan.
+	 * @param offsetX
+	 *            horizontal position of the image in the frame.
+	 * @param offsetY
+	 *            vertical position of the image in the frame.
+	 * @param role
+	 *            the role of the classifier, face or body.
+	 * @param classifierName
+	 *            the classifier file path.
+	 * @param parameters
+	 *            the scan parameters.
+	 * @param objects
+	 *            receives the objects found, in frame coordinates.
+	 * @throws Exception
+	 */
+	private void scan(final Mat image, final int offsetX, final int offsetY, final String role, final String classifierName,
+			final DetectionParameters parameters, final List<Rect> objects) throws Exception {
+		final Rect[] found;
+		if (webcamProperties.isParallelDetection() && tiledDetector.isTiled(image)) {
+			final List<Rect> tiledObjects = tiledDetector.detect(image, role, classifierName, parameters);
+			found = tiledObjects.toArray(new Rect[tiledObjects.size()]);
+		} else {
+			final CascadeClassifier objectDetector = cascadeClassifierRegistry.acquire(role, classifierName);
+			final MatOfRect objectCoordinates = new MatOfRect();
+			try {
+				detectObjects(objectDetector, image, objectCoordinates, parameters);
+				found = objectCoordinates.toArray();
+			} finally {
+				objectCoordinates.release();
+				cascadeClassifierRegistry.release(role, classifierName, objectDetector);
+			}
+		}
+		for (Rect object : found) {
+			objects.add(new Rect(object.x + offsetX, object.y + offsetY, object.width, object.height));
+		}
+	}
+
+	/**
+	 * Scan an image with a classifier.
+	 * 
+	 * @param objectDetector
+	 *            the classifier.
+	 * @param image
+	 *            the image to scan.
+	 * @param objectCoordinates
+	 *            receives the coordinates of the objects found.
+	 * @param parameters
+	 *            the scan parameters.
+	 */
+	static void detectObjects(final CascadeClassifier objectDetector, final Mat image, final MatOfRect objectCoordinates, final DetectionParameters parameters) {
+		objectDetector.detectMultiScale(image, objectCoordinates, parameters.getScaleFactor(), parameters.getMinNeighbors(), 0, parameters.getMinSize(), parameters.getMaxSize());
+	}
+
+	/**
+	 * Get the configured scan parameters of a classifier.
+	 * 
+	 * @param role
+	 *            the role of the classifier, face or body.
+	 * @return the parameters.
+	 */
+	public DetectionParameters getDetectionParameters(final String role) {
+		if (BODY_CLASSIFIER.equals(role)) {
+			return new DetectionParameters(webcamProperties.getBodyDetectionScaleFactor(), webcamProperties.getBodyDetectionMinNeighbors(), webcamProperties.getBodyDetectionMinSize(), webcamProperties.getBodyDetectionMaxSize());
+		}
+		return new DetectionParameters(webcamProperties.getFaceDetectionScaleFactor(), webcamProperties.getFaceDetectionMinNeighbors(), webcamProperties.getFaceDetectionMinSize(), webcamProperties.getFaceDetectionMaxSize());
+	}
+
+	/**
+	 * Get the sizes of the objects recently found by a classifier.
+	 * 
+	 * @param role
+	 *            the role of the classifier, face or body.
+	 * @return the sizes, null if the scan is not adaptive.
+	 */
+	private AdaptiveObjectSize getAdaptiveObjectSize(final String role) {
+		if (!webcamProperties.isAdaptiveDetectionSize()) {
+			return null;
+		}
+		AdaptiveObjectSize adaptiveObjectSize = adaptiveObjectSizes.get(role);
+		if (adaptiveObjectSize == null) {
+			adaptiveObjectSize = new AdaptiveObjectSize(webcamProperties.getAdaptiveDetectionMargin(), webcamProperties.getAdaptiveDetectionFullScanInterval());
+			final AdaptiveObjectSize existing = adaptiveObjectSizes.putIfAbsent(role, adaptiveObjectSize);
+			if (existing != null) {
+				adaptiveObjectSize = existing;
+			}
+		}
+		return adaptiveObjectSize;
+	}
+
+	/**
+	 * Get the regions of the image worth scanning for objects: the regions
+	 * where the motion detector found motion in the last frame, padded and
+	 * merged.
+	 * 
+	 * @param motionDetector
+	 *            the motion detector the last frame has been given to.
+	 * @param frameSize
+	 *            size of the frame.
+	 * @return the regions, empty if no motion.
+	 */
+	public List<Rect> getRegionsOfInterest(final MotionDetector motionDetector, final Size frameSize) {
+		final int minimumSize = webcamProperties.getMotionRegionMinimumSize();
+		return RegionsOfInterest.build(motionDetector.getMotionRegions(), webcamProperties.getMotionRegionPadding(), new Size(minimumSize, minimumSize), frameSize);
+	}
+
 	/**
 	 * Get all the faces found in the image.
 	 * 
@@ -345,56 +660,13 @@ public class WebcamManager {
 		}
 	}
 
+	/**
+	 * Train the face recognition model from the faces gallery.
+	 * 
+	 * @return true if succeeded.
+	 */
 	public boolean learnFaces() {
-		// System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
-		log.debug("Starting to learn faces from" + webcamProperties.getFacesPath() + ".");
-		File[] faces;
-		File dir;
-		int counter = 0;
-		final List<Mat> images = new ArrayList<Mat>();
-		List<java.lang.Integer> labels = new ArrayList<java.lang.Integer>();
-
-		// Images filter.
-		FilenameFilter fileFilter = new FilenameFilter() {
-			public boolean accept(File dir, String name) {
-				return name.toLowerCase().endsWith(".png") || name.toLowerCase().endsWith(".jpg");
-			}
-		};
-
-		try {
-			final File facesPath = new File(webcamProperties.getFacesPath());
-			String[] facesDirectories = facesPath.list();
-
-			// Iterate over the faces directories.
-			for (String directory : facesDirectories) {
-				directory = facesPath.getAbsolutePath().concat("/").concat(directory);
-				log.debug("Learning faces from " + directory);
-				dir = new File(directory);
-				if (!dir.isDirectory()) {
-					continue;
-				}
-				faces = dir.listFiles(fileFilter);
-				// Store the corresponding name.
-				faceRecognizer.setLabelInfo(counter, dir.getName());
-				// Iterate over the face images in these directories.
-				for (File faceImage : faces) {
-					log.debug("Learning face " + faceImage.getAbsolutePath() + ".");
-
-					// Get image and label:
-					final Mat img = Imgcodecs.imread(faceImage.getAbsolutePath(), 0);
-					images.add(img);
-					labels.add(counter);
-
-				}
-				counter++;
-			}
-			faceRecognizer.train(images, Converters.vector_int_to_Mat(labels));
-			trained = true;
-			return true;
-		} catch (Exception e) {
-			log.error("Failed to learn the faces.", e);
-			return false;
-		}
+		return faceRecognitionModel.learnFaces();
 	}
 
 	/**
@@ -414,18 +686,36 @@ public class WebcamManager {
 		}
 	}
 
+	/**
+	 * Capture a face and save in the appropriate folder (name). The user is
+	 * looked up again once the face is enrolled, a user not found before
+	 * being found from then on.
+	 * 
+	 * @param name
+	 *            Name for the associated face.
+	 * @return true if managed to do so.
+	 */
+	public boolean saveFace(final String name, Mat face) {
+		return saveFace(name, face, true);
+	}
+
 	/**
 	 * Capture a face and save in the appropriate folder (name).
 	 * 
 	 * @param name
 	 *            Name for the associated face.
+	 * @param face
+	 *            the face.
+	 * @param enrollment
+	 *            true if the user is enrolled, false for a new sample of a
+	 *            user already recognized, whose cached user stays valid.
 	 * @return true if managed to do so.
 	 */
-	public boolean saveFace(String name, Mat face) {
+	private boolean saveFace(final String name, final Mat face, final boolean enrollment) {
 		// Images filter.
 		FilenameFilter fileFilter = new FilenameFilter() {
-			public boolean accept(File dir, String name) {
-				return name.toLowerCase().contains(name);
+			public boolean accept(File dir, String fileName) {
+				return fileName.equalsIgnoreCase(name);
 			}
 		};
 
@@ -433,20 +723,33 @@ public class WebcamManager {
 			final File facesPath = new File(webcamProperties.getFacesPath());
 			final File[] facesDirectories = facesPath.listFiles(fileFilter);
 
-			Mat resizedFace = new Mat();
+			final Mat resizedFace = new Mat();
 			Imgproc.resize(face, resizedFace, new Size(100, 100));
-			String fileName = UUID.randomUUID() + ".png";
+			String fileName = UUID.randomUUID() + EncodedFrame.extensionOf(webcamProperties.getFacesFormat());
+			final File faceDirectory;
 			if (facesDirectories.length > 0) {
-				final String imageName = facesDirectories[0].getAbsolutePath() + "/" + fileName;
-				Imgcodecs.imwrite(imageName, resizedFace);
+				faceDirectory = facesDirectories[0];
 			} else {
-				final File newDirectory = new File(facesPath.getAbsolutePath() + "/" + name);
-				final String imageName = newDirectory.getAbsolutePath() + "/" + fileName;
-				newDirectory.mkdir();
-				Imgcodecs.imwrite(imageName, resizedFace);
+				faceDirectory = new File(facesPath.getAbsolutePath() + "/" + name);
+				faceDirectory.mkdir();
 			}
+			final File imageFile = new File(faceDirectory.getAbsolutePath() + "/" + fileName);
+			final String faceName = faceDirectory.getName();
+			return imageWriter.write(resizedFace, imageFile, webcamProperties.getFacesQuality(), new ImageWriter.Listener() {
+				@Override
+				public void written(final File file) {
+					// Make the face recognizable without training the whole gallery again.
+					faceRecognitionModel.enroll(faceName, resizedFace, file);
+					if (enrollment) {
+						userCache.invalidate(faceName);
+					}
+				}
 
-			return true;
+				@Override
+				public void failed(final File file) {
+					resizedFace.release();
+				}
+			});
 		} catch (Exception e) {
 			log.error("Unable to save a face related to the name " + name + ".", e);
 			return false;
@@ -472,35 +775,6 @@ public class WebcamManager {
 		return predictFaces(Imgcodecs.imdecode(new MatOfByte(image), Imgcodecs.CV_LOAD_IMAGE_UNCHANGED));
 	}
 
-	/**
-	 * Write in a file the video composed by the list of images provided.
-	 * 
-	 * @param images
-	 *            images that will compose the video;
-	 */
-	public synchronized void writeRecordedVideo(List<Mat> images) {
-		final String videoFileName = webcamProperties.getVideoFilesPath() + DateFormatUtils.format(new Date(), "yyyyMMdd HH-mm-ss") + "-" + UUID.randomUUID() + ".avi";
-		log.debug("Writing video to disk. File name : " + videoFileName + " (" + images.size() + " frames).");
-		final Size frameSize = new Size((int) camera.get(Videoio.CAP_PROP_FRAME_WIDTH), (int) camera.get(Videoio.CAP_PROP_FRAME_HEIGHT));
-		final VideoWriter videoWriter = new VideoWriter();
-		videoWriter.open(videoFileName, VideoWriter.fourcc('D', 'I', 'V', 'X'), webcamProperties.getVideoFPS(), frameSize, true);
-		// log.info("videoWriter open ? " + videoWriter.isOpened());
-		final long startTime = System.currentTimeMillis();
-		for (Mat image : images) {
-			videoWriter.write(image);
-		}
-		videoWriter.release();
-
-		// Free memory.
-		for (Mat image : images) {
-			image.release();
-		}
-		images.clear();
-		final long estimatedTime = System.currentTimeMillis() - startTime;
-		log.info("Video file " + videoFileName + " written to disk in " + (double) (estimatedTime / 1000) + " seconds.");
-
-	}
-
 	/**
 	 * Predict a name for each samples in the faces path.
 	 * 
@@ -535,55 +809,134 @@ public class WebcamManager {
 	 * @return the name found.
 	 */
 	public List<User> predictFaces(final Mat image) {
+		return predictFaces(image, null);
+	}
+
+	/**
+	 * Predict the names related to the faces found in regions of the image.
+	 * 
+	 * @param image
+	 *            image to predict the faces from.
+	 * @param regions
+	 *            the regions to scan, null for the whole image.
+	 * @return the names found.
+	 */
+	public List<User> predictFaces(final Mat image, final List<Rect> regions) {
+		final Mat grayImage = toGray(image);
+		return predictFaces(image, grayImage, grayImage, regions);
+	}
+
+	/**
+	 * Predict the names related to the faces found in regions of a captured
+	 * frame, using the gray images shared with the other captures.
+	 * 
+	 * @param frame
+	 *            frame to predict the faces from.
+	 * @param regions
+	 *            the regions to scan, null for the whole image.
+	 * @return the names found.
+	 */
+	public List<User> predictFaces(final FrameContext frame, final List<Rect> regions) {
+		return predictFaces(frame.getImage(), frame.getGray(), frame.getEqualized(), regions);
+	}
+
+	/**
+	 * Predict the names related to the faces found in regions of an image.
+	 * 
+	 * @param image
+	 *            image to draw the faces found on.
+	 * @param grayImage
+	 *            the image in gray, the faces are taken from. Not modified.
+	 * @param detectionImage
+	 *            the gray image the faces are looked for in. Not modified.
+	 * @param regions
+	 *            the regions to scan, null for the whole image.
+	 * @return the names found.
+	 */
+	private List<User> predictFaces(final Mat image, final Mat grayImage, final Mat detectionImage, final List<Rect> regions) {
 		ArrayList<User> users = new ArrayList<>();
 		User userFound;
-		double d;
-		int[] id = { -1 };
-		double[] dist = { -1 };
 		int counter = 0;
-		String nameFound = "";
-		if (!trained) {
-			learnFaces();
-		}
-		Mat grayImage = toGray(image);
+		faceRecognitionModel.ensureTrained();
 		// Get the faces.
-		final MatOfRect facesCoordinates = getFacesCoordinates(grayImage);
+		final MatOfRect facesCoordinates = getFacesCoordinates(detectionImage, regions);
 		Rect[] facesArray = facesCoordinates.toArray();
 		final List<Mat> faces = getFaces(grayImage, facesCoordinates);
 		for (Mat face : faces) {
-			// Predict.
-			faceRecognizer.predict(face, id, dist);
-			if (id[0] == -1) {
-				nameFound = "Unknown";
-			} else {
-				nameFound = faceRecognizer.getLabelInfo(id[0]);
-				// Add the face to the collection related to the name.
-				saveFace(nameFound, face);
-			}
-			d = ((int) (dist[0] * 100));
-			userFound = userService.getByUserName(nameFound);
-			if (userFound != null && userFound.getUserId() != 0) {
-				userFound.setUserPassword("*****");
-				users.add(userFound);
-			} else {
-				users.add(new User(0, nameFound, "", ""));
-			}
-			log.debug("Found face " + nameFound + " (" + d / 100 + ").");
-
-			// Save the face and draw on source image.
-			if (!webcamProperties.getPredictedFacesPath().equals("")) {
-				Imgproc.resize(face, face, new Size(100, 100));
-				saveImage(face, webcamProperties.getPredictedFacesPath());
-			}
-			drawRectangleOnImage(image, facesArray[counter].tl(), facesArray[counter].br(), nameFound);
+			userFound = recognizeFace(face);
+			users.add(userFound);
+			drawRectangleOnImage(image, facesArray[counter].tl(), facesArray[counter].br(), userFound.getUserName());
 			counter++;
 		}
 		if (!webcamProperties.getPredictedImagesPath().equals("")) {
-			saveImage(image, webcamProperties.getPredictedImagesPath());
+			savePredictedImage(image);
 		}
 		return users;
 	}
 
+	/**
+	 * Get the coordinates of the faces found in regions of a captured frame,
+	 * without predicting their names.
+	 * 
+	 * @param frame
+	 *            frame to look for the faces in.
+	 * @param regions
+	 *            the regions to scan, null for the whole image.
+	 * @return the coordinates of the faces found, empty if none.
+	 */
+	public List<Rect> detectFaces(final FrameContext frame, final List<Rect> regions) {
+		final MatOfRect facesCoordinates = getFacesCoordinates(frame.getEqualized(), regions);
+		if (facesCoordinates == null) {
+			return new ArrayList<Rect>();
+		}
+		final List<Rect> faces = facesCoordinates.toList();
+		facesCoordinates.release();
+		return faces;
+	}
+
+	/**
+	 * Predict the name related to a face.
+	 * 
+	 * @param face
+	 *            the face, in gray. Not modified.
+	 * @return the user found, a user named Unknown if the face is not
+	 *         recognized.
+	 */
+	public User recognizeFace(final Mat face) {
+		faceRecognitionModel.ensureTrained();
+		final FacePrediction prediction = faceRecognitionModel.predict(face);
+		final String nameFound;
+		if (!prediction.isRecognized()) {
+			nameFound = UNKNOWN_USER_NAME;
+		} else {
+			nameFound = prediction.getName();
+			// Add the face to the collection related to the name.
+			saveFace(nameFound, face, false);
+		}
+		final double d = ((int) (prediction.getConfidence() * 100));
+		log.debug("Found face " + nameFound + " (" + d / 100 + ").");
+
+		// Save the face.
+		if (!webcamProperties.getPredictedFacesPath().equals("")) {
+			// The face may be part of a shared image, which is not modified.
+			final Mat predictedFace = new Mat();
+			Imgproc.resize(face, predictedFace, new Size(100, 100));
+			saveImage(predictedFace, webcamProperties.getPredictedFacesPath(), webcamProperties.getPredictedFacesFormat(), webcamProperties.getPredictedFacesQuality(), null);
+			predictedFace.release();
+		}
+		final User userFound = prediction.isRecognized() ? userCache.get(prediction.getLabel(), nameFound) : null;
+		return userFound != null ? userFound : new User(0, nameFound, "", "");
+	}
+
+	/**
+	 * Create a tracker of the faces seen by a capture.
+	 * 
+	 * @return the tracker.
+	 */
+	public FaceTracker createFaceTracker() {
+		return new FaceTracker(this, webcamProperties.getFaceDetectionInterval(), webcamProperties.getFaceTrackingMinimumScore(), webcamProperties.getFaceTrackingMaximumMisses());
+	}
+
 	/**
 	 * Draw a rectangle and add a label if any on the image.
 	 * 
@@ -604,17 +957,19 @@ public class WebcamManager {
 	}
 
 	/**
-	 * Get the corresponding gray scaled image.
+	 * Get the corresponding gray scaled image. The original image is not
+	 * modified.
 	 * 
 	 * @param image
 	 *            the original image.
-	 * @return the grayed image.
+	 * @return the grayed image, the original image if already gray.
 	 */
 	public Mat toGray(Mat image) {
-		Mat grayImage = image;
-		if (image.channels() > 1) {
-			Imgproc.cvtColor(image, grayImage, Imgproc.COLOR_BGR2GRAY);
+		if (image.channels() == 1) {
+			return image;
 		}
+		final Mat grayImage = new Mat();
+		Imgproc.cvtColor(image, grayImage, Imgproc.COLOR_BGR2GRAY);
 		return grayImage;
 	}
 
@@ -625,9 +980,7 @@ public class WebcamManager {
 	 */
 	public User authenticate() {
 		log.info("Starting authentication using face recognition.");
-		if (!trained) {
-			learnFaces();
-		}
+		faceRecognitionModel.ensureTrained();
 
 		setAuthenticatedUSer(null);
 		final List<User> users = predictFace();
@@ -653,9 +1006,7 @@ public class WebcamManager {
 	 */
 	public User authenticateWithAuthenticationFactor() {
 		log.info("Starting authentication using face recognition.");
-		if (!trained) {
-			learnFaces();
-		}
+		faceRecognitionModel.ensureTrained();
 		startCapture();
 		setAuthenticatedUSer(null);
 		int loopCounter = webcamProperties.getLoopsForFaceRecognitionAuthentication();
@@ -682,8 +1033,10 @@ public class WebcamManager {
 
 	public boolean startWatching() {
 		try {
-			startCapture(new WatchImageHandler(this));
-			return googleDriveServices.startFileStorageProcess(webcamProperties.getVideoFilesPath());
+			if (!startRecordingCapture(WATCH_CAPTURE, new WatchImageHandler(this))) {
+				return false;
+			}
+			return storageService.startFileStorageProcess(webcamProperties.getVideoFilesPath());
 		} catch (Exception e) {
 			log.error("Error while starting to Watch.", e);
 			return false;
@@ -691,15 +1044,15 @@ public class WebcamManager {
 	}
 
 	public boolean stopWatching() {
-		this.recording = false;
-		stopCapture();
-		return googleDriveServices.stopFileStorageProcess();
+		return stopRecordingCapture(WATCH_CAPTURE);
 	}
 
 	public boolean startMotionDetection() {
 		try {
-			startCapture(new StoreImageHandler(this));
-			return googleDriveServices.startFileStorageProcess(webcamProperties.getVideoFilesPath());
+			if (!startRecordingCapture(MOTION_CAPTURE, new StoreImageHandler(this))) {
+				return false;
+			}
+			return storageService.startFileStorageProcess(webcamProperties.getVideoFilesPath());
 		} catch (Exception e) {
 			log.error("Error while starting Motion Detection.", e);
 			return false;
@@ -707,70 +1060,65 @@ public class WebcamManager {
 	}
 
 	public boolean stopMotionDetection() {
-		this.recording = false;
-		stopCapture();
-		return googleDriveServices.stopFileStorageProcess();
+		return stopRecordingCapture(MOTION_CAPTURE);
 	}
-	
-	
+
 	/**
-	 * Motion detection between 2 frames.
-	 * 
-	 * @param frame1
-	 *            Frame 1. Must be the background. TODO Create a setBackground
-	 *            somewhere...
-	 * @param frame2
-	 *            Frame 2.
-	 * @return True if motion detected.
-	 */
-	public boolean detectMotion(Mat frame1, Mat frame2) {
-
-		boolean targetDetected = false;
-		List<MatOfPoint> contours = new ArrayList<MatOfPoint>();
-		Mat hierarchy = new Mat();
-
-		// Move these frames to gray scales.
-		frame1 = toGray(frame1);
-		Imgproc.GaussianBlur(frame1, frame1, new Size(21, 21), 0);
-		frame2 = toGray(frame2);
-		Imgproc.GaussianBlur(frame2, frame2, new Size(21, 21), 0);
-		Mat result = frame1.clone();
-
-		// saveImage(frame1, "C:/tmp/shots/motionDetection/");
-		// saveImage(frame2, "C:/tmp/shots/motionDetection/");
-
-		Core.absdiff(frame1, frame2, result);
-		// Core.subtract(frame2, frame1, result);
-		// saveImage(result, "C:/tmp/shots/motionDetection/");
-
-		// Imgproc.adaptiveThreshold(result, result, 255,
-		// Imgproc.ADAPTIVE_THRESH_MEAN_C, Imgproc.THRESH_BINARY_INV, 5, 2);
-		Imgproc.threshold(result, result, 25, 255, Imgproc.THRESH_BINARY);
-		// saveImage(result, "C:/tmp/shots/motionDetection/");
-		contours.clear();
-		Imgproc.findContours(result, contours, hierarchy, Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
-
-		// Draw the contours on the frame 2.
-		for (int i = 0; i < contours.size(); i++) {
-			Mat contour = contours.get(i);
-			double contourarea = Imgproc.contourArea(contour);
-			if (contourarea > 700) {
-				targetDetected = true;
-				drawRectangleOnImage(frame2, Imgproc.boundingRect(contours.get(i)).br(), Imgproc.boundingRect(contours.get(i)).tl(), "");
-				saveImage(frame2, "C:/tmp/shots/motionDetection/");
-				// Imgproc.drawContours(frame1, contours, i, new Scalar(255,
-				// 255, 255), 2);
+	 * Start a capture recording videos. Watching and motion detection share
+	 * the recorder, so the other recording capture is stopped first.
+	 * 
+	 * @param name
+	 *            name of the capture.
+	 * @param capturedImageHandler
+	 *            handler of the captured images.
+	 * @return true if succeeded.
+	 */
+	private boolean startRecordingCapture(final String name, final ICapturedImageHandler capturedImageHandler) {
+		synchronized (recordingLock) {
+			if (recordingCapture != null && !recordingCapture.equals(name)) {
+				log.info("Capture " + recordingCapture + " stopped, capture " + name + " records from now on.");
+				stopRecordingCapture(recordingCapture);
 			}
-
+			if (!startCapture(name, capturedImageHandler)) {
+				return false;
+			}
+			recordingCapture = name;
+			return true;
 		}
+	}
 
-		if (contours.size() > 0) {
-			targetDetected = true;
-		} else {
-			targetDetected = false;
+	/**
+	 * Stop a capture recording videos: the video in progress is closed, the
+	 * pre-roll is emptied and the file storage process is stopped.
+	 * 
+	 * @param name
+	 *            name of the capture.
+	 * @return true if succeeded, false if the capture was not recording.
+	 */
+	private boolean stopRecordingCapture(final String name) {
+		synchronized (recordingLock) {
+			if (!name.equals(recordingCapture)) {
+				log.debug("Capture " + name + " is not recording.");
+				return false;
+			}
+			stopCapture(name);
+			recordingCapture = null;
+			recording = false;
+			writeRecordedVideo();
+			videoRecorder.clearPreRoll();
+			return storageService.stopFileStorageProcess();
 		}
-		return targetDetected;
-
+	}
+	
+	
+	/**
+	 * Create a motion detector with the configured parameters.
+	 * 
+	 * @return the motion detector.
+	 */
+	public MotionDetector createMotionDetector() {
+		return new MotionDetector(webcamProperties.getMotionLearningRate(), webcamProperties.getMotionThreshold(), webcamProperties.getMotionMinimumArea(),
+				webcamProperties.getMotionScaledWidth(), webcamProperties.getMotionChangedPixelRatio());
 	}
 
 	/**
@@ -814,28 +1162,46 @@ public class WebcamManager {
 	}
 
 	/**
-	 * Add a frame at the beginning of the queue. Remove the last one if the
-	 * maximum limit has been reached.
+	 * Get the cache of the users recognized.
 	 * 
-	 * @param image
-	 *            image to add to the queue.
+	 * @return the userCache.
+	 */
+	public UserCache getUserCache() {
+		return userCache;
+	}
+
+	/**
+	 * Append a frame to the video being recorded. The frame is queued encoded
+	 * in the configured format and quality. The copy of the handler is
+	 * recorded if it has one, with what it has drawn, otherwise the JPEG view
+	 * of the frame is reused if already computed for another capture. The
+	 * video is written by the recorder thread, the frame is dropped if the
+	 * recorder is late.
+	 * 
+	 * @param frame
+	 *            frame to append.
 	 */
-	protected void addCapturedFrame(final Mat image) {
-		if (capturedFramesQueue.size() >= webcamProperties.getMaximumFramesInVideoFiles()) {
-			writeRecordedVideo(capturedFramesQueue);
+	protected void addCapturedFrame(final FrameContext frame) {
+		final String extension = EncodedFrame.extensionOf(webcamProperties.getFrameFormat());
+		final int quality = webcamProperties.getFrameQuality();
+		if (frame.isImageCopied()) {
+			videoRecorder.append(EncodedFrame.encode(frame.getImage(), extension, quality));
+		} else if (EncodedFrame.JPEG.equals(extension)) {
+			videoRecorder.append(new EncodedFrame(frame.getJpeg(quality).toArray(), extension, frame.getTimestamp()));
+		} else {
+			videoRecorder.append(EncodedFrame.encode(frame.getFrameImage(), extension, quality));
 		}
-		final Mat newImage = image.clone(); // Had to do that, otherwise always
-											// the same frame stored...
-		capturedFramesQueue.add(newImage);
 	}
 
 	/**
-	 * Return the captured frames queue.
+	 * Keep a frame not recorded in the pre-roll buffer, so that it is written
+	 * ahead of the next frame recorded.
 	 * 
-	 * @return
+	 * @param frame
+	 *            frame to keep.
 	 */
-	protected List<Mat> getCapturedFrames() {
-		return capturedFramesQueue;
+	protected void addPreRollFrame(final FrameContext frame) {
+		videoRecorder.preRecord(frame);
 	}
 
 	/**
@@ -862,17 +1228,19 @@ public class WebcamManager {
 	}
 
 	/**
-	 * Flush the captured frames into a video file.
+	 * Close the video being recorded once its frames are written.
 	 */
 	public void writeRecordedVideo() {
-		writeRecordedVideo(capturedFramesQueue);
+		videoRecorder.endVideo();
 	}
 
 	/**
 	 * @return True if a capture is underway.
 	 */
 	public boolean isCapturing() {
-		return capturing;
+		synchronized (webcamCapturers) {
+			return !webcamCapturers.isEmpty();
+		}
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,295 @@
+package com.dachlab.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dachlab.properties.IStorageProperties;
+
+/**
+ * Uploader of the files of a folder to a storage backend. The folder is
+ * watched: each file created or modified is scheduled for upload once it has
+ * not been modified for a while, so that a file still being written is not
+ * uploaded. The uploads run on a pool of workers, several files at a time, and
+ * a failed upload is retried with an exponential backoff. A file uploaded is
+ * deleted locally if the backend keeps it, a file whose upload failed is
+ * kept.
+ *
+ * The state of each file is recorded in an {@link UploadJournal}: at start,
+ * the files waiting or cut while being uploaded are scheduled again from the
+ * journal, without looking at the folder.
+ *
+ * @author dcharles
+ */
+public class FileUploadScheduler {
+
+	/** Maximum time to wait for the uploads in progress at stop. */
+	private static final long STOP_TIMEOUT = 10000;
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	private final IStorageBackend storageBackend;
+
+	private final IStorageProperties storageProperties;
+
+	private final File folder;
+
+	private final UploadJournal journal;
+
+	/** Files scheduled or being uploaded. */
+	private final Set<File> scheduledFiles = ConcurrentHashMap.newKeySet();
+
+	private ScheduledThreadPoolExecutor workers;
+
+	private WatchService watchService;
+
+	private Thread watcherThread;
+
+	/**
+	 * Constructor using the folder to upload the files from.
+	 *
+	 * @param storageBackend
+	 *            the backend the files are uploaded to.
+	 * @param storageProperties
+	 *            the upload parameters.
+	 * @param pathToFilesToStore
+	 *            path of the folder.
+	 * @param journal
+	 *            the journal of the uploads, open.
+	 */
+	public FileUploadScheduler(final IStorageBackend storageBackend, final IStorageProperties storageProperties, final String pathToFilesToStore,
+			final UploadJournal journal) {
+		this.storageBackend = storageBackend;
+		this.storageProperties = storageProperties;
+		this.folder = new File(pathToFilesToStore);
+		this.journal = journal;
+	}
+
+	/**
+	 * Start watching the folder and schedule the files of the journal.
+	 *
+	 * @param scanFolder
+	 *            true to schedule the files already in the folder too, when
+	 *            the journal is new.
+	 * @throws IOException
+	 *             if the folder cannot be watched.
+	 */
+	public synchronized void start(final boolean scanFolder) throws IOException {
+		final int threads = Math.max(1, storageProperties.getUploadThreads());
+		final AtomicInteger threadNumber = new AtomicInteger();
+		workers = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "upload-worker-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		final Path path = folder.toPath();
+		watchService = FileSystems.getDefault().newWatchService();
+		path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		final WatchService watched = watchService;
+		watcherThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch(watched, path);
+			}
+		}, "upload-watcher");
+		watcherThread.setDaemon(true);
+		watcherThread.start();
+		for (File file : journal.getFilesToUpload()) {
+			schedule(file);
+		}
+		if (scanFolder) {
+			scheduleFolder();
+		}
+		log.info("Uploading the files of " + folder + " to " + storageBackend.getName() + " with " + threads + " workers.");
+	}
+
+	/**
+	 * Stop watching the folder and wait for the uploads in progress. The
+	 * files not uploaded yet are uploaded at the next start.
+	 */
+	public synchronized void stop() {
+		if (watchService == null) {
+			return;
+		}
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			log.error("Unable to close the watch service of " + folder + ".", e);
+		}
+		watchService = null;
+		watcherThread.interrupt();
+		// Uploads waiting for their delay are cancelled, the running ones end.
+		workers.shutdownNow();
+		try {
+			if (!workers.awaitTermination(STOP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				log.warn("Uploads still running after stop.");
+			}
+			watcherThread.join(STOP_TIMEOUT);
+		} catch (InterruptedException e) {
+			log.error("Error while waiting for the uploads to stop.", e);
+		}
+		scheduledFiles.clear();
+		log.info("Upload of the files of " + folder + " stopped.");
+	}
+
+	/**
+	 * @return true if the folder is watched.
+	 */
+	public synchronized boolean isRunning() {
+		return watchService != null;
+	}
+
+	/**
+	 * Schedule the files created or modified in the folder, until the watch
+	 * service is closed.
+	 *
+	 * @param watched
+	 *            the watch service.
+	 * @param path
+	 *            the folder.
+	 */
+	private void watch(final WatchService watched, final Path path) {
+		try {
+			while (true) {
+				final WatchKey key = watched.take();
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						// Events lost, look at the whole folder again.
+						scheduleFolder();
+					} else {
+						schedule(path.resolve((Path) event.context()).toFile());
+					}
+				}
+				if (!key.reset()) {
+					log.error("The folder " + folder + " is no longer accessible, files are no longer uploaded.");
+					return;
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			log.debug("Upload watcher of " + folder + " stopped.");
+		}
+	}
+
+	/**
+	 * Schedule the upload of a file once it has settled, unless already
+	 * scheduled. The file is recorded in the journal.
+	 *
+	 * @param file
+	 *            the file.
+	 */
+	public void schedule(final File file) {
+		if (!file.isFile()) {
+			return;
+		}
+		journal.pending(file);
+		if (scheduledFiles.add(file.getAbsoluteFile())) {
+			submit(file.getAbsoluteFile(), 0, storageProperties.getUploadSettleDelay());
+		}
+	}
+
+	/**
+	 * Schedule all the files of the folder.
+	 */
+	private void scheduleFolder() {
+		final File[] files = folder.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				schedule(file);
+			}
+		}
+	}
+
+	/**
+	 * Submit an upload attempt to the workers.
+	 *
+	 * @param file
+	 *            the file.
+	 * @param attempt
+	 *            number of attempts already failed.
+	 * @param delay
+	 *            delay before the attempt, in milliseconds.
+	 */
+	private void submit(final File file, final int attempt, final long delay) {
+		try {
+			workers.schedule(new Runnable() {
+				@Override
+				public void run() {
+					upload(file, attempt);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// Stopped, the file is uploaded at the next start.
+			scheduledFiles.remove(file);
+		}
+	}
+
+	/**
+	 * Upload a file, or postpone it if it has been modified recently. The
+	 * upload is retried later if failed.
+	 *
+	 * @param file
+	 *            the file.
+	 * @param attempt
+	 *            number of attempts already failed.
+	 */
+	private void upload(final File file, final int attempt) {
+		if (!file.isFile()) {
+			journal.done(file);
+			scheduledFiles.remove(file);
+			return;
+		}
+		final long settleDelay = storageProperties.getUploadSettleDelay();
+		final long age = System.currentTimeMillis() - file.lastModified();
+		if (age < settleDelay) {
+			submit(file, attempt, settleDelay - age);
+			return;
+		}
+		log.debug("Uploading file " + file.getName() + " to " + storageBackend.getName() + ".");
+		journal.inFlight(file);
+		try {
+			storageBackend.store(file);
+			// Recorded done once deleted, a file gone being forgotten anyway.
+			if (!storageBackend.isDurable()) {
+				log.debug("File " + file.getName() + " uploaded to " + storageBackend.getName() + ", which does not keep it, kept locally.");
+			} else if (file.delete()) {
+				log.debug("File " + file.getName() + " uploaded and deleted locally.");
+			} else {
+				log.warn("File " + file.getName() + " uploaded but not deleted locally.");
+			}
+			journal.done(file);
+			scheduledFiles.remove(file);
+			return;
+		} catch (IOException e) {
+			log.debug("Upload of " + file.getName() + " failed.", e);
+		}
+		journal.retry(file);
+		if (attempt + 1 >= storageProperties.getUploadMaximumAttempts()) {
+			scheduledFiles.remove(file);
+			log.error("Upload of " + file.getName() + " failed " + (attempt + 1) + " times, it will be retried at the next start.");
+			return;
+		}
+		final long delay = Math.min(storageProperties.getUploadMaximumRetryDelay(), storageProperties.getUploadRetryDelay() << Math.min(attempt, 30));
+		log.warn("Upload of " + file.getName() + " failed, retrying in " + delay + " ms.");
+		submit(file, attempt + 1, delay);
+	}
+
+}
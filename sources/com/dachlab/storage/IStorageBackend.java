@@ -0,0 +1,37 @@
+package com.dachlab.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Backend the files to store are offloaded to: a Drive folder or a local
+ * directory, or a mock for the benchmarks. Implementations must be thread
+ * safe, several files being stored at the same time.
+ *
+ * @author dcharles
+ */
+public interface IStorageBackend {
+
+	/**
+	 * Store a file. The local file is left as is.
+	 *
+	 * @param file
+	 *            the file to store.
+	 * @return the identifier of the file in the backend.
+	 * @throws IOException
+	 *             if the file could not be stored.
+	 */
+	String store(File file) throws IOException;
+
+	/**
+	 * @return the name of the backend, for the logs.
+	 */
+	String getName();
+
+	/**
+	 * @return true if the backend keeps the files stored, so that the local
+	 *         files can be deleted once stored.
+	 */
+	boolean isDurable();
+
+}
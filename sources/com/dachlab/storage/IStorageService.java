@@ -0,0 +1,41 @@
+package com.dachlab.storage;
+
+import java.io.File;
+
+/**
+ * Interface for offloading the files to store to the configured backend.
+ * 
+ * @author dcharles
+ *
+ */
+public interface IStorageService {
+
+	/**
+	 * Queue a complete file to be stored. The file is recorded in the upload
+	 * journal, and uploaded right away if the file storage process is
+	 * running, at its next start otherwise.
+	 * 
+	 * @param file
+	 *            the file to store.
+	 * @return true if queued.
+	 */
+	boolean addFileToStorageQueue(File file);
+
+	/**
+	 * Start a running process that stores the files of a folder to the
+	 * configured backend.
+	 * 
+	 * @param pathToFilesToStore
+	 *            the path to the folder from where to get the local files.
+	 * @return true if properly initialized.
+	 */
+	boolean startFileStorageProcess(String pathToFilesToStore);
+
+	/**
+	 * Interrupt the current file storage process.
+	 * 
+	 * @return true if interrupted.
+	 */
+	boolean stopFileStorageProcess();
+
+}
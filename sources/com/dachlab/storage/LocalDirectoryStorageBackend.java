@@ -0,0 +1,51 @@
+package com.dachlab.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Backend storing the files in a local directory, a mounted network share or
+ * a USB disk for instance. A file is copied under a temporary name, then
+ * renamed in one step, so that the directory never holds a partial file.
+ *
+ * @author dcharles
+ */
+public class LocalDirectoryStorageBackend implements IStorageBackend {
+
+	private final File directory;
+
+	/**
+	 * Constructor using the directory.
+	 *
+	 * @param directory
+	 *            the directory the files are copied to, created if needed.
+	 */
+	public LocalDirectoryStorageBackend(final File directory) {
+		this.directory = directory;
+	}
+
+	@Override
+	public String store(final File file) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create the storage directory " + directory + ".");
+		}
+		final File target = new File(directory, file.getName());
+		final File temporaryFile = new File(directory, "." + file.getName() + ".tmp");
+		Files.copy(file.toPath(), temporaryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.move(temporaryFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return target.getAbsolutePath();
+	}
+
+	@Override
+	public String getName() {
+		return "directory " + directory;
+	}
+
+	@Override
+	public boolean isDurable() {
+		return true;
+	}
+
+}
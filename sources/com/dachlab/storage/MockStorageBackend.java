@@ -0,0 +1,125 @@
+package com.dachlab.storage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory backend standing in for a remote storage, for the tests and the
+ * benchmarks only, it cannot be configured for the application. The files are
+ * read and thrown away, only their number and size are kept, and the local
+ * files are never deleted after a store. Each file costs a fixed latency, then
+ * is read at most at the configured bandwidth, shared by the files stored at
+ * the same time as a network link would be.
+ *
+ * @author dcharles
+ */
+public class MockStorageBackend implements IStorageBackend {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** Latency of each file, in milliseconds. */
+	private final long latency;
+
+	/** Bandwidth shared by the files, in bytes per second, 0 for unlimited. */
+	private final long bandwidth;
+
+	private final AtomicLong storedFiles = new AtomicLong();
+
+	private final AtomicLong storedBytes = new AtomicLong();
+
+	/** Time the link is busy until, in nanoseconds. */
+	private long linkBusyUntil;
+
+	/**
+	 * Constructor using the simulated network.
+	 *
+	 * @param latency
+	 *            latency of each file, in milliseconds.
+	 * @param bandwidth
+	 *            bandwidth shared by the files, in bytes per second, 0 for
+	 *            unlimited.
+	 */
+	public MockStorageBackend(final long latency, final long bandwidth) {
+		this.latency = latency;
+		this.bandwidth = bandwidth;
+	}
+
+	@Override
+	public String store(final File file) throws IOException {
+		try {
+			Thread.sleep(latency);
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			final InputStream in = new FileInputStream(file);
+			try {
+				int read;
+				while ((read = in.read(buffer)) > 0) {
+					transfer(read);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Storage of " + file.getName() + " interrupted.", e);
+		}
+		storedFiles.incrementAndGet();
+		storedBytes.addAndGet(file.length());
+		return UUID.randomUUID().toString();
+	}
+
+	/**
+	 * Wait for the time a number of bytes takes on the link.
+	 *
+	 * @param bytes
+	 *            the number of bytes.
+	 * @throws InterruptedException
+	 *             if interrupted.
+	 */
+	private void transfer(final int bytes) throws InterruptedException {
+		if (bandwidth <= 0) {
+			return;
+		}
+		final long done;
+		synchronized (this) {
+			final long now = System.nanoTime();
+			linkBusyUntil = Math.max(linkBusyUntil, now) + bytes * 1000000000L / bandwidth;
+			done = linkBusyUntil;
+		}
+		final long wait = done - System.nanoTime();
+		if (wait > 0) {
+			Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+		}
+	}
+
+	/**
+	 * @return the number of files stored.
+	 */
+	public long getStoredFiles() {
+		return storedFiles.get();
+	}
+
+	/**
+	 * @return the number of bytes stored.
+	 */
+	public long getStoredBytes() {
+		return storedBytes.get();
+	}
+
+	@Override
+	public String getName() {
+		return "mock (" + latency + " ms, " + (bandwidth > 0 ? bandwidth + " B/s" : "unlimited") + ")";
+	}
+
+	/**
+	 * The files are thrown away, the local files must be kept.
+	 */
+	@Override
+	public boolean isDurable() {
+		return false;
+	}
+
+}
@@ -0,0 +1,157 @@
+package com.dachlab.storage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+import com.dachlab.properties.StorageProperties;
+
+/**
+ * Benchmark of the offload of the clips, end to end, against the mock
+ * backend. For each number of workers, a burst of synthetic clips is moved
+ * into a watched folder as the recorder does, then uploaded by the
+ * {@link FileUploadScheduler} with its journal. The time from the first clip
+ * to the last one stored gives the offload rate, in clips and megabytes per
+ * second.
+ *
+ * Usage: StorageBenchmark [clips] [clipSize] [latency] [bandwidth] [workers],
+ * the clip size in bytes, the latency in milliseconds, the bandwidth in bytes
+ * per second, 0 for unlimited, and the workers a comma separated list.
+ *
+ * @author dcharles
+ */
+public class StorageBenchmark {
+
+	/** Maximum time to wait for a burst to be offloaded. */
+	private static final long TIMEOUT = 600000;
+
+	private final int clips;
+
+	private final int clipSize;
+
+	private final long latency;
+
+	private final long bandwidth;
+
+	/**
+	 * Constructor using the clips and the simulated network.
+	 *
+	 * @param clips
+	 *            number of clips of a burst.
+	 * @param clipSize
+	 *            size of a clip in bytes.
+	 * @param latency
+	 *            latency of each clip, in milliseconds.
+	 * @param bandwidth
+	 *            bandwidth in bytes per second, 0 for unlimited.
+	 */
+	public StorageBenchmark(final int clips, final int clipSize, final long latency, final long bandwidth) {
+		this.clips = clips;
+		this.clipSize = clipSize;
+		this.latency = latency;
+		this.bandwidth = bandwidth;
+	}
+
+	public static void main(final String[] args) throws Exception {
+		final int clips = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		final int clipSize = args.length > 1 ? Integer.parseInt(args[1]) : 4 * 1024 * 1024;
+		final long latency = args.length > 2 ? Long.parseLong(args[2]) : 200;
+		final long bandwidth = args.length > 3 ? Long.parseLong(args[3]) : 10 * 1024 * 1024;
+		final String[] workers = (args.length > 4 ? args[4] : "1,2,4,8").split(",");
+		final StorageBenchmark benchmark = new StorageBenchmark(clips, clipSize, latency, bandwidth);
+		System.out.println(String.format("%8s %8s %9s %9s %9s", "workers", "clips", "seconds", "clips/s", "MB/s"));
+		for (String threads : workers) {
+			benchmark.run(Integer.parseInt(threads.trim()));
+		}
+	}
+
+	/**
+	 * Offload a burst of clips and print the rate.
+	 *
+	 * @param threads
+	 *            number of upload workers.
+	 * @throws IOException
+	 *             if the clips cannot be written.
+	 * @throws InterruptedException
+	 *             if interrupted.
+	 */
+	private void run(final int threads) throws IOException, InterruptedException {
+		final File root = Files.createTempDirectory("storage-benchmark").toFile();
+		final File staging = new File(root, "staging");
+		final File folder = new File(root, "clips");
+		if (!staging.mkdirs() || !folder.mkdirs()) {
+			throw new IOException("Unable to create the folders of the benchmark in " + root + ".");
+		}
+		for (int i = 0; i < clips; i++) {
+			writeClip(new File(staging, "clip-" + i + ".mp4"));
+		}
+		final StorageProperties properties = new StorageProperties();
+		properties.setUploadThreads(threads);
+		properties.setUploadSettleDelay(0);
+		final UploadJournal journal = new UploadJournal(new File(root, "upload-journal.log"));
+		journal.open();
+		final MockStorageBackend backend = new MockStorageBackend(latency, bandwidth);
+		final FileUploadScheduler scheduler = new FileUploadScheduler(backend, properties, folder.getPath(), journal);
+		scheduler.start(false);
+		try {
+			final long start = System.nanoTime();
+			for (int i = 0; i < clips; i++) {
+				final String name = "clip-" + i + ".mp4";
+				Files.move(new File(staging, name).toPath(), new File(folder, name).toPath(), StandardCopyOption.ATOMIC_MOVE);
+			}
+			final long deadline = System.currentTimeMillis() + TIMEOUT;
+			while (backend.getStoredFiles() < clips && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			final double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format("%8d %8d %9.2f %9.2f %9.2f", threads, backend.getStoredFiles(), seconds, backend.getStoredFiles() / seconds,
+					backend.getStoredBytes() / 1048576.0 / seconds));
+		} finally {
+			scheduler.stop();
+			journal.close();
+			delete(root);
+		}
+	}
+
+	/**
+	 * Write a clip of random bytes.
+	 *
+	 * @param file
+	 *            the clip.
+	 * @throws IOException
+	 *             if the clip cannot be written.
+	 */
+	private void writeClip(final File file) throws IOException {
+		final byte[] content = new byte[clipSize];
+		new Random(file.getName().hashCode()).nextBytes(content);
+		final OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Delete a folder and its content.
+	 *
+	 * @param file
+	 *            the folder.
+	 */
+	private static void delete(final File file) {
+		final File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		if (!file.delete()) {
+			System.err.println("Unable to delete " + file + ".");
+		}
+	}
+
+}
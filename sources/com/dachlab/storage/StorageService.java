@@ -0,0 +1,130 @@
+package com.dachlab.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.dachlab.properties.IStorageProperties;
+
+/**
+ * Service offloading the files to store to the configured backend, the Drive
+ * storage folder or a local directory, through a {@link FileUploadScheduler}
+ * and its {@link UploadJournal}.
+ * 
+ * @author dcharles
+ *
+ */
+@Service("storageService")
+public class StorageService implements IStorageService {
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private IStorageProperties storageProperties;
+
+	/** The Drive service, used only if the drive backend is configured. **/
+	@Autowired
+	private IStorageBackend googleDriveService;
+
+	/** Uploader of the files to store, null if not started. **/
+	private FileUploadScheduler fileUploadScheduler;
+
+	/** Journal of the uploads, null until opened. **/
+	private UploadJournal uploadJournal;
+
+	/** True if the journal has been created, the files to store never seen. **/
+	private boolean uploadJournalCreated;
+
+	@Override
+	public synchronized boolean startFileStorageProcess(final String pathToFilesToStore) {
+		try {
+			stopFileStorageProcess();
+			final FileUploadScheduler scheduler = new FileUploadScheduler(createStorageBackend(), storageProperties, pathToFilesToStore, getUploadJournal());
+			scheduler.start(uploadJournalCreated);
+			uploadJournalCreated = false;
+			this.fileUploadScheduler = scheduler;
+			return true;
+		} catch (Throwable t) {
+			log.error("unable to start the file storage process", t);
+			return false;
+		}
+	}
+
+	@Override
+	public synchronized boolean addFileToStorageQueue(final File file) {
+		try {
+			if (fileUploadScheduler != null && fileUploadScheduler.isRunning()) {
+				fileUploadScheduler.schedule(file);
+			} else {
+				getUploadJournal().pending(file);
+			}
+			return true;
+		} catch (IOException e) {
+			log.error("Unable to queue the file " + file + " for storage.", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Get the backend the files to store are uploaded to, as configured: drive
+	 * or local.
+	 * 
+	 * @return the backend.
+	 * @throws IllegalArgumentException
+	 *             if the backend configured is unknown.
+	 */
+	private IStorageBackend createStorageBackend() {
+		final String backend = storageProperties.getBackend();
+		if ("local".equalsIgnoreCase(backend)) {
+			return new LocalDirectoryStorageBackend(new File(storageProperties.getLocalPath()));
+		}
+		if (backend == null || "drive".equalsIgnoreCase(backend)) {
+			return googleDriveService;
+		}
+		throw new IllegalArgumentException("Unknown storage backend " + backend + ", drive or local expected.");
+	}
+
+	/**
+	 * Get the journal of the uploads, opening it the first time.
+	 * 
+	 * @return the journal.
+	 * @throws IOException
+	 *             if the journal cannot be opened.
+	 */
+	private UploadJournal getUploadJournal() throws IOException {
+		if (uploadJournal == null) {
+			final UploadJournal journal = new UploadJournal(new File(storageProperties.getUploadJournalFile()));
+			uploadJournalCreated = !journal.open();
+			uploadJournal = journal;
+		}
+		return uploadJournal;
+	}
+
+	@Override
+	@PreDestroy
+	public synchronized boolean stopFileStorageProcess() {
+		try {
+			if (fileUploadScheduler != null && fileUploadScheduler.isRunning()) {
+				fileUploadScheduler.stop();
+				fileUploadScheduler = null;
+				uploadJournal.close();
+				uploadJournal = null;
+				log.info("File storage process interrupted successfully");
+				return true;
+			} else {
+				log.info("Unable to interrupt the file storage process. It is either not initialized yet or already interrupted.");
+				return false;
+			}
+		} catch (Throwable t) {
+			log.error("unable to stop the file storage process", t);
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,247 @@
+package com.dachlab.storage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Journal of the files to upload, kept on disk so that a restart resumes the
+ * uploads where they were. Each change of state of a file is appended to the
+ * journal and synced before going on, one line per change. At load, the last
+ * state of each file wins, and the journal is compacted: the files uploaded
+ * and the files no longer on disk are forgotten. A line partly written by a
+ * crash is ignored. Thread safe.
+ *
+ * @author dcharles
+ */
+public class UploadJournal {
+
+	/** State of a file in the journal. */
+	public enum State {
+		/** Waiting to be uploaded. */
+		PENDING,
+		/** Being uploaded, to be uploaded again if the upload was cut. */
+		IN_FLIGHT,
+		/** Uploaded, and deleted locally if the backend keeps the files. */
+		DONE
+	}
+
+	private static final char SEPARATOR = '\t';
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	private final File journalFile;
+
+	/** Last state of the files not uploaded yet, in order of arrival. */
+	private final Map<File, State> states = new LinkedHashMap<File, State>();
+
+	private FileOutputStream out;
+
+	/**
+	 * Constructor using the journal file.
+	 *
+	 * @param journalFile
+	 *            the journal file, created if needed.
+	 */
+	public UploadJournal(final File journalFile) {
+		this.journalFile = journalFile;
+	}
+
+	/**
+	 * Read and compact the journal, then open it for appending.
+	 *
+	 * @return true if the journal existed, false if it has been created.
+	 * @throws IOException
+	 *             if the journal cannot be read or written.
+	 */
+	public synchronized boolean open() throws IOException {
+		close();
+		states.clear();
+		final boolean existed = journalFile.isFile();
+		if (existed) {
+			read();
+		}
+		for (Iterator<Map.Entry<File, State>> iterator = states.entrySet().iterator(); iterator.hasNext();) {
+			final Map.Entry<File, State> entry = iterator.next();
+			if (entry.getValue() == State.DONE || !entry.getKey().isFile()) {
+				iterator.remove();
+			}
+		}
+		compact();
+		out = new FileOutputStream(journalFile, true);
+		return existed;
+	}
+
+	/**
+	 * Close the journal.
+	 */
+	public synchronized void close() {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.close();
+		} catch (IOException e) {
+			log.error("Unable to close the upload journal " + journalFile + ".", e);
+		}
+		out = null;
+	}
+
+	/**
+	 * Record a file to upload, unless already waiting or being uploaded.
+	 *
+	 * @param file
+	 *            the file.
+	 * @return true if recorded, false if already known.
+	 */
+	public synchronized boolean pending(final File file) {
+		if (states.containsKey(file.getAbsoluteFile())) {
+			return false;
+		}
+		append(file, State.PENDING);
+		return true;
+	}
+
+	/**
+	 * Record a file being uploaded.
+	 *
+	 * @param file
+	 *            the file.
+	 */
+	public synchronized void inFlight(final File file) {
+		append(file, State.IN_FLIGHT);
+	}
+
+	/**
+	 * Record a file uploaded, or gone, so that it is forgotten.
+	 *
+	 * @param file
+	 *            the file.
+	 */
+	public synchronized void done(final File file) {
+		append(file, State.DONE);
+	}
+
+	/**
+	 * Record a file to upload again later.
+	 *
+	 * @param file
+	 *            the file.
+	 */
+	public synchronized void retry(final File file) {
+		append(file, State.PENDING);
+	}
+
+	/**
+	 * @return the files to upload, waiting or cut while being uploaded, in
+	 *         order of arrival.
+	 */
+	public synchronized List<File> getFilesToUpload() {
+		return new ArrayList<File>(states.keySet());
+	}
+
+	/**
+	 * Append a change of state and sync it to disk.
+	 *
+	 * @param file
+	 *            the file.
+	 * @param state
+	 *            its new state.
+	 */
+	private void append(final File file, final State state) {
+		final File absoluteFile = file.getAbsoluteFile();
+		if (state == State.DONE) {
+			states.remove(absoluteFile);
+		} else {
+			states.put(absoluteFile, state);
+		}
+		if (out == null) {
+			log.warn("Upload journal " + journalFile + " not open, " + absoluteFile + " " + state + " not recorded.");
+			return;
+		}
+		try {
+			out.write(line(absoluteFile, state));
+			out.getFD().sync();
+		} catch (IOException e) {
+			log.error("Unable to record " + absoluteFile + " " + state + " in the upload journal.", e);
+		}
+	}
+
+	/**
+	 * Read the states of the journal, the last state of each file winning.
+	 *
+	 * @throws IOException
+	 *             if the journal cannot be read.
+	 */
+	private void read() throws IOException {
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final int separator = line.indexOf(SEPARATOR);
+				if (separator < 0) {
+					continue;
+				}
+				final State state;
+				try {
+					state = State.valueOf(line.substring(0, separator));
+				} catch (IllegalArgumentException e) {
+					log.warn("Invalid line in the upload journal " + journalFile + ": " + line);
+					continue;
+				}
+				final File file = new File(line.substring(separator + 1));
+				// Keep the order of arrival of the files.
+				states.remove(file);
+				states.put(file, state);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Write the states in a new journal, then replace the journal with it.
+	 *
+	 * @throws IOException
+	 *             if the journal cannot be written.
+	 */
+	private void compact() throws IOException {
+		final File compactedFile = new File(journalFile.getPath() + ".tmp");
+		final FileOutputStream compacted = new FileOutputStream(compactedFile);
+		try {
+			for (Map.Entry<File, State> entry : states.entrySet()) {
+				compacted.write(line(entry.getKey(), entry.getValue()));
+			}
+			compacted.getFD().sync();
+		} finally {
+			compacted.close();
+		}
+		Files.move(compactedFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @param file
+	 *            the file.
+	 * @param state
+	 *            its state.
+	 * @return the journal line of the state.
+	 */
+	private static byte[] line(final File file, final State state) {
+		return (state.name() + SEPARATOR + file.getPath() + "\n").getBytes(StandardCharsets.UTF_8);
+	}
+
+}
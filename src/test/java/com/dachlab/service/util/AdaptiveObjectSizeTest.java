@@ -0,0 +1,84 @@
+package com.dachlab.service.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+/**
+ * Tests of the {@link AdaptiveObjectSize}.
+ *
+ * @author dcharles
+ */
+public class AdaptiveObjectSizeTest {
+
+	private static final DetectionParameters PARAMETERS = new DetectionParameters(1.1, 3, 20, 0);
+
+	@Test
+	public void scansTheFullRangeUntilAnObjectIsFound() {
+		final AdaptiveObjectSize adaptiveObjectSize = new AdaptiveObjectSize(0.2, 3);
+		assertSame(PARAMETERS, adaptiveObjectSize.adapt(PARAMETERS));
+	}
+
+	@Test
+	public void narrowsTheRangeAroundTheSizesFound() {
+		final AdaptiveObjectSize adaptiveObjectSize = new AdaptiveObjectSize(0.2, 3);
+		adaptiveObjectSize.observe(Arrays.asList(new Rect(0, 0, 50, 50), new Rect(0, 0, 100, 100)));
+		assertSizes(adaptiveObjectSize.adapt(PARAMETERS), 40, 120);
+	}
+
+	@Test
+	public void staysWithinTheConfiguredRange() {
+		final AdaptiveObjectSize adaptiveObjectSize = new AdaptiveObjectSize(0.5, 3);
+		adaptiveObjectSize.observe(Arrays.asList(new Rect(0, 0, 30, 30), new Rect(0, 0, 90, 90)));
+		assertSizes(adaptiveObjectSize.adapt(new DetectionParameters(1.1, 3, 20, 100)), 20, 100);
+	}
+
+	@Test
+	public void scansTheFullRangePeriodically() {
+		final AdaptiveObjectSize adaptiveObjectSize = new AdaptiveObjectSize(0.2, 3);
+		adaptiveObjectSize.observe(Arrays.asList(new Rect(0, 0, 50, 50)));
+		for (int i = 0; i < 3; i++) {
+			assertNotSame(PARAMETERS, adaptiveObjectSize.adapt(PARAMETERS));
+		}
+		assertSame(PARAMETERS, adaptiveObjectSize.adapt(PARAMETERS));
+		assertNotSame(PARAMETERS, adaptiveObjectSize.adapt(PARAMETERS));
+	}
+
+	@Test
+	public void forgetsTheSizesOnceNothingIsFound() {
+		final AdaptiveObjectSize adaptiveObjectSize = new AdaptiveObjectSize(0.2, 3);
+		adaptiveObjectSize.observe(Arrays.asList(new Rect(0, 0, 50, 50)));
+		for (int i = 0; i < 3; i++) {
+			adaptiveObjectSize.observe(Collections.<Rect> emptyList());
+		}
+		assertNotSame(PARAMETERS, adaptiveObjectSize.adapt(PARAMETERS));
+		adaptiveObjectSize.observe(Collections.<Rect> emptyList());
+		assertSame(PARAMETERS, adaptiveObjectSize.adapt(PARAMETERS));
+	}
+
+	/**
+	 * Check the size range of parameters.
+	 *
+	 * @param parameters
+	 *            the parameters.
+	 * @param minSize
+	 *            the minimum width and height expected.
+	 * @param maxSize
+	 *            the maximum width and height expected.
+	 */
+	private static void assertSizes(final DetectionParameters parameters, final double minSize, final double maxSize) {
+		assertEquals(minSize, parameters.getMinSize().width, 0);
+		assertEquals(minSize, parameters.getMinSize().height, 0);
+		assertEquals(maxSize, parameters.getMaxSize().width, 0);
+		assertEquals(maxSize, parameters.getMaxSize().height, 0);
+		assertEquals(1.1, parameters.getScaleFactor(), 0);
+		assertEquals(3, parameters.getMinNeighbors());
+	}
+
+}
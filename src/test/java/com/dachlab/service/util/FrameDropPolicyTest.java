@@ -0,0 +1,56 @@
+package com.dachlab.service.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests of the selection of the frames by the {@link FrameDropPolicy}.
+ *
+ * @author dcharles
+ */
+public class FrameDropPolicyTest {
+
+	private static final int RING_SIZE = 8;
+
+	@Test
+	public void latestSkipsToTheCursor() {
+		assertEquals(20, FrameDropPolicy.LATEST.selectSequence(5, 20, 0, RING_SIZE));
+		assertEquals(5, FrameDropPolicy.LATEST.selectSequence(5, 5, 0, RING_SIZE));
+	}
+
+	@Test
+	public void blockHandlesEveryFrame() {
+		assertEquals(5, FrameDropPolicy.BLOCK.selectSequence(5, 20, 100, RING_SIZE));
+	}
+
+	@Test
+	public void dropOldestKeepsTheLastPendingFrames() {
+		// Within the limit, nothing is dropped.
+		assertEquals(5, FrameDropPolicy.DROP_OLDEST.selectSequence(5, 7, 4, RING_SIZE));
+		// Beyond, only the 4 most recent frames are left.
+		assertEquals(17, FrameDropPolicy.DROP_OLDEST.selectSequence(5, 20, 4, RING_SIZE));
+	}
+
+	@Test
+	public void everyNthHandlesTheMultiples() {
+		assertEquals(3, FrameDropPolicy.EVERY_NTH.selectSequence(1, 2, 3, RING_SIZE));
+		assertEquals(3, FrameDropPolicy.EVERY_NTH.selectSequence(3, 4, 3, RING_SIZE));
+		assertEquals(6, FrameDropPolicy.EVERY_NTH.selectSequence(4, 6, 3, RING_SIZE));
+	}
+
+	@Test
+	public void everyNthNeverLagsMoreThanTheRing() {
+		// Frame 3 is long overwritten, the last multiple published is taken.
+		assertEquals(18, FrameDropPolicy.EVERY_NTH.selectSequence(3, 20, 3, RING_SIZE));
+	}
+
+	@Test
+	public void defaultParameters() {
+		assertEquals(RING_SIZE, FrameDropPolicy.DROP_OLDEST.getDefaultParameter(RING_SIZE));
+		assertEquals(100, FrameDropPolicy.BLOCK.getDefaultParameter(RING_SIZE));
+		assertEquals(2, FrameDropPolicy.EVERY_NTH.getDefaultParameter(RING_SIZE));
+		assertEquals(0, FrameDropPolicy.LATEST.getDefaultParameter(RING_SIZE));
+	}
+
+}
@@ -0,0 +1,119 @@
+package com.dachlab.service.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link PreRollBuffer}.
+ *
+ * @author dcharles
+ */
+public class PreRollBufferTest {
+
+	@Test
+	public void keepsTheFramesInOrder() {
+		final PreRollBuffer buffer = new PreRollBuffer(100, 10, 1000);
+		assertTrue(buffer.add(frame(1, 10), 10, 0));
+		assertTrue(buffer.add(frame(2, 20), 20, 10));
+		assertEquals(2, buffer.size());
+		assertFrame(buffer, 0, frame(1, 10));
+		assertFrame(buffer, 1, frame(2, 20));
+	}
+
+	@Test
+	public void dropsTheFramesTooOld() {
+		final PreRollBuffer buffer = new PreRollBuffer(100, 10, 1000);
+		buffer.add(frame(1, 10), 10, 0);
+		buffer.add(frame(2, 10), 10, 500);
+		buffer.add(frame(3, 10), 10, 1200);
+		assertEquals(2, buffer.size());
+		assertFrame(buffer, 0, frame(2, 10));
+	}
+
+	@Test
+	public void dropsTheOldestFrameWhenTheIndexIsFull() {
+		final PreRollBuffer buffer = new PreRollBuffer(100, 3, 1000);
+		for (int i = 1; i <= 4; i++) {
+			buffer.add(frame(i, 10), 10, i);
+		}
+		assertEquals(3, buffer.size());
+		assertFrame(buffer, 0, frame(2, 10));
+		assertFrame(buffer, 2, frame(4, 10));
+	}
+
+	@Test
+	public void wrapsAroundTheArena() {
+		final PreRollBuffer buffer = new PreRollBuffer(100, 10, 1000);
+		buffer.add(frame(1, 40), 40, 0);
+		buffer.add(frame(2, 40), 40, 1);
+		// Does not fit after the second frame: written at the start of the
+		// arena over the first one.
+		buffer.add(frame(3, 30), 30, 2);
+		assertEquals(2, buffer.size());
+		assertFrame(buffer, 0, frame(2, 40));
+		assertFrame(buffer, 1, frame(3, 30));
+		// Fits between the third and the second frame, overwriting the
+		// second.
+		buffer.add(frame(4, 30), 30, 3);
+		assertEquals(2, buffer.size());
+		assertFrame(buffer, 0, frame(3, 30));
+		assertFrame(buffer, 1, frame(4, 30));
+	}
+
+	@Test
+	public void rejectsAFrameLargerThanTheArena() {
+		final PreRollBuffer buffer = new PreRollBuffer(100, 10, 1000);
+		buffer.add(frame(1, 10), 10, 0);
+		assertFalse(buffer.add(frame(2, 101), 101, 1));
+		assertEquals(1, buffer.size());
+	}
+
+	@Test
+	public void clearRemovesAllTheFrames() {
+		final PreRollBuffer buffer = new PreRollBuffer(100, 10, 1000);
+		buffer.add(frame(1, 60), 60, 0);
+		buffer.clear();
+		assertTrue(buffer.isEmpty());
+		buffer.add(frame(2, 100), 100, 1);
+		assertFrame(buffer, 0, frame(2, 100));
+	}
+
+	/**
+	 * Build an encoded frame.
+	 *
+	 * @param value
+	 *            value of its bytes.
+	 * @param length
+	 *            its length.
+	 * @return the frame.
+	 */
+	private static byte[] frame(final int value, final int length) {
+		final byte[] frame = new byte[length];
+		Arrays.fill(frame, (byte) value);
+		return frame;
+	}
+
+	/**
+	 * Check a frame of the buffer.
+	 *
+	 * @param buffer
+	 *            the buffer.
+	 * @param i
+	 *            index of the frame.
+	 * @param expected
+	 *            the frame expected.
+	 */
+	private static void assertFrame(final PreRollBuffer buffer, final int i, final byte[] expected) {
+		assertEquals(expected.length, buffer.getLength(i));
+		final byte[] target = new byte[buffer.getLength(i)];
+		assertEquals(expected.length, buffer.get(i, target));
+		assertArrayEquals(expected, target);
+	}
+
+}
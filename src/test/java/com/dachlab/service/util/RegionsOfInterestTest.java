@@ -0,0 +1,72 @@
+package com.dachlab.service.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+/**
+ * Tests of the {@link RegionsOfInterest}.
+ *
+ * @author dcharles
+ */
+public class RegionsOfInterestTest {
+
+	@Test
+	public void mergesTheOverlappingRegions() {
+		final List<Rect> regions = RegionsOfInterest.merge(new ArrayList<Rect>(Arrays.asList(new Rect(0, 0, 10, 10), new Rect(5, 5, 10, 10), new Rect(50, 50, 5, 5))));
+		assertEquals(2, regions.size());
+		assertEquals(new Rect(0, 0, 15, 15), regions.get(0));
+		assertEquals(new Rect(50, 50, 5, 5), regions.get(1));
+	}
+
+	@Test
+	public void mergesTheRegionsOverlappingAMergedRegion() {
+		// The third region only overlaps the union of the first two.
+		final List<Rect> regions = RegionsOfInterest.merge(new ArrayList<Rect>(Arrays.asList(new Rect(0, 0, 10, 10), new Rect(20, 0, 10, 10), new Rect(0, 12, 30, 5),
+				new Rect(5, 0, 20, 15))));
+		assertEquals(1, regions.size());
+		assertEquals(new Rect(0, 0, 30, 17), regions.get(0));
+	}
+
+	@Test
+	public void keepsTheRegionsOnlyTouching() {
+		final List<Rect> regions = RegionsOfInterest.merge(new ArrayList<Rect>(Arrays.asList(new Rect(0, 0, 10, 10), new Rect(10, 0, 10, 10))));
+		assertEquals(2, regions.size());
+		assertFalse(RegionsOfInterest.overlap(new Rect(0, 0, 10, 10), new Rect(10, 0, 10, 10)));
+		assertTrue(RegionsOfInterest.overlap(new Rect(0, 0, 10, 10), new Rect(9, 9, 10, 10)));
+	}
+
+	@Test
+	public void padsAndClipsTheRegions() {
+		final List<Rect> regions = RegionsOfInterest.build(Arrays.asList(new Rect(10, 10, 20, 20), new Rect(90, 90, 10, 10)), 0.5, new Size(0, 0), new Size(100, 100));
+		assertEquals(2, regions.size());
+		// Padded by half its size on each side, clipped to the frame.
+		assertEquals(new Rect(0, 0, 40, 40), regions.get(0));
+		assertEquals(new Rect(85, 85, 15, 15), regions.get(1));
+	}
+
+	@Test
+	public void growsTheRegionsToTheMinimumSize() {
+		final List<Rect> regions = RegionsOfInterest.build(Arrays.asList(new Rect(50, 50, 4, 4)), 0, new Size(24, 24), new Size(100, 100));
+		assertEquals(new Rect(40, 40, 24, 24), regions.get(0));
+	}
+
+	@Test
+	public void measuresTheIntersection() {
+		final Rect region = new Rect(0, 0, 10, 10);
+		assertEquals(25, RegionsOfInterest.intersection(region, new Rect(5, 5, 10, 10)), 0);
+		assertEquals(0, RegionsOfInterest.intersection(region, new Rect(10, 10, 10, 10)), 0);
+		assertEquals(25.0 / 175, RegionsOfInterest.intersectionOverUnion(region, new Rect(5, 5, 10, 10)), 1e-9);
+		assertEquals(1, RegionsOfInterest.intersectionOverUnion(region, new Rect(0, 0, 10, 10)), 1e-9);
+		assertEquals(125, RegionsOfInterest.area(Arrays.asList(region, new Rect(0, 0, 5, 5))));
+	}
+
+}
@@ -0,0 +1,46 @@
+package com.dachlab.service.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+/**
+ * Tests of the merge of the objects found twice by the {@link TiledDetector}.
+ *
+ * @author dcharles
+ */
+public class TiledDetectorTest {
+
+	@Test
+	public void keepsTheLargestOfTheOverlappingObjects() {
+		final List<Rect> kept = TiledDetector.suppress(new ArrayList<Rect>(Arrays.asList(new Rect(2, 2, 18, 18), new Rect(0, 0, 20, 20))));
+		assertEquals(1, kept.size());
+		assertEquals(new Rect(0, 0, 20, 20), kept.get(0));
+	}
+
+	@Test
+	public void dropsAnObjectMostlyInsideALargerOne() {
+		// Small overlap over the union, but the small object is inside.
+		final List<Rect> kept = TiledDetector.suppress(new ArrayList<Rect>(Arrays.asList(new Rect(10, 10, 10, 10), new Rect(0, 0, 60, 60))));
+		assertEquals(1, kept.size());
+		assertEquals(new Rect(0, 0, 60, 60), kept.get(0));
+	}
+
+	@Test
+	public void keepsTheObjectsBarelyOverlapping() {
+		final List<Rect> kept = TiledDetector.suppress(new ArrayList<Rect>(Arrays.asList(new Rect(0, 0, 20, 20), new Rect(18, 0, 20, 20), new Rect(100, 100, 10, 10))));
+		assertEquals(3, kept.size());
+	}
+
+	@Test
+	public void keepsTheObjectsFromTheLargest() {
+		final List<Rect> kept = TiledDetector.suppress(new ArrayList<Rect>(Arrays.asList(new Rect(100, 100, 10, 10), new Rect(0, 0, 30, 30), new Rect(50, 50, 20, 20))));
+		assertEquals(Arrays.asList(new Rect(0, 0, 30, 30), new Rect(50, 50, 20, 20), new Rect(100, 100, 10, 10)), kept);
+	}
+
+}
@@ -0,0 +1,157 @@
+package com.dachlab.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link UploadJournal}.
+ *
+ * @author dcharles
+ */
+public class UploadJournalTest {
+
+	private File folder;
+
+	private File journalFile;
+
+	@Before
+	public void createFolder() throws IOException {
+		folder = Files.createTempDirectory("upload-journal").toFile();
+		journalFile = new File(folder, "upload-journal.log");
+	}
+
+	@After
+	public void deleteFolder() {
+		final File[] files = folder.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		folder.delete();
+	}
+
+	@Test
+	public void createsTheJournal() throws IOException {
+		final UploadJournal journal = new UploadJournal(journalFile);
+		assertFalse(journal.open());
+		journal.close();
+		assertTrue(journalFile.isFile());
+		final UploadJournal reopened = new UploadJournal(journalFile);
+		assertTrue(reopened.open());
+		reopened.close();
+	}
+
+	@Test
+	public void recordsAFileOnce() throws IOException {
+		final File clip = clip("clip-1.mp4");
+		final UploadJournal journal = new UploadJournal(journalFile);
+		journal.open();
+		assertTrue(journal.pending(clip));
+		assertFalse(journal.pending(clip));
+		journal.inFlight(clip);
+		assertFalse(journal.pending(clip));
+		assertEquals(Arrays.asList(clip.getAbsoluteFile()), journal.getFilesToUpload());
+		journal.close();
+	}
+
+	@Test
+	public void resumesTheUploadsNotDone() throws IOException {
+		final File waiting = clip("clip-1.mp4");
+		final File cut = clip("clip-2.mp4");
+		final File uploaded = clip("clip-3.mp4");
+		final UploadJournal journal = new UploadJournal(journalFile);
+		journal.open();
+		journal.pending(waiting);
+		journal.pending(cut);
+		journal.pending(uploaded);
+		journal.inFlight(cut);
+		journal.inFlight(uploaded);
+		journal.done(uploaded);
+		journal.close();
+
+		final UploadJournal reopened = new UploadJournal(journalFile);
+		assertTrue(reopened.open());
+		assertEquals(Arrays.asList(waiting.getAbsoluteFile(), cut.getAbsoluteFile()), reopened.getFilesToUpload());
+		reopened.close();
+	}
+
+	@Test
+	public void forgetsTheFilesGone() throws IOException {
+		final File clip = clip("clip-1.mp4");
+		final UploadJournal journal = new UploadJournal(journalFile);
+		journal.open();
+		journal.pending(clip);
+		journal.close();
+		assertTrue(clip.delete());
+
+		final UploadJournal reopened = new UploadJournal(journalFile);
+		reopened.open();
+		assertEquals(Collections.emptyList(), reopened.getFilesToUpload());
+		reopened.close();
+	}
+
+	@Test
+	public void compactsTheJournalAtOpen() throws IOException {
+		final File clip = clip("clip-1.mp4");
+		final File uploaded = clip("clip-2.mp4");
+		final UploadJournal journal = new UploadJournal(journalFile);
+		journal.open();
+		journal.pending(clip);
+		journal.pending(uploaded);
+		journal.inFlight(uploaded);
+		journal.done(uploaded);
+		journal.retry(clip);
+		journal.close();
+
+		final UploadJournal reopened = new UploadJournal(journalFile);
+		reopened.open();
+		reopened.close();
+		assertEquals(Arrays.asList("PENDING\t" + clip.getAbsolutePath()), Files.readAllLines(journalFile.toPath(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void ignoresALinePartlyWritten() throws IOException {
+		final File clip = clip("clip-1.mp4");
+		final OutputStream out = new FileOutputStream(journalFile);
+		try {
+			out.write(("PENDING\t" + clip.getAbsolutePath() + "\nIN_FL").getBytes(StandardCharsets.UTF_8));
+		} finally {
+			out.close();
+		}
+		final UploadJournal journal = new UploadJournal(journalFile);
+		assertTrue(journal.open());
+		assertEquals(Arrays.asList(clip.getAbsoluteFile()), journal.getFilesToUpload());
+		journal.close();
+	}
+
+	/**
+	 * Create a clip in the folder.
+	 *
+	 * @param name
+	 *            name of the clip.
+	 * @return the clip.
+	 * @throws IOException
+	 *             if the clip cannot be written.
+	 */
+	private File clip(final String name) throws IOException {
+		final File clip = new File(folder, name);
+		Files.write(clip.toPath(), new byte[] { 1, 2, 3 });
+		return clip;
+	}
+
+}